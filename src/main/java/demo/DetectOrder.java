@@ -27,6 +27,7 @@ import org.biojava.nbio.structure.align.symm.CeSymm;
 import org.biojava.nbio.structure.align.symm.order.OrderDetectionFailedException;
 import org.biojava.nbio.structure.align.symm.order.OrderDetector;
 import org.biojava.nbio.structure.align.symm.order.RotationOrderDetector;
+import org.biojava.nbio.structure.align.symm.order.RotationProfileCache;
 import org.biojava.nbio.structure.align.symm.order.RotationOrderDetector.RotationOrderMethod;
 
 public class DetectOrder {
@@ -46,15 +47,13 @@ public class DetectOrder {
 	public static void printSuperpositionDistance(Atom[] ca, RotationAxis axis,double angleIncr, PrintStream out) throws StructureException {
 		final int steps = (int)Math.floor(Math.PI/angleIncr);
 
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
+		// shared with the detectors that sample the same rotations
+		double[] distances = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, 0, steps, 1);
 
 		for (int step=0; step<steps;step++) {
-			double dist = RotationOrderDetector.superpositionDistance(ca, ca2);
+			double dist = distances[step];
 			double angle = angleIncr*step;
 
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
-
 			out.format("%f\t%f%n",angle,dist);
 		}
 	}
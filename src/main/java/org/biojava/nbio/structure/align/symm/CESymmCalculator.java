@@ -24,26 +24,123 @@
  */
 package org.biojava.nbio.structure.align.symm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Calc;
 import org.biojava.nbio.structure.SVDSuperimposer;
+import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.align.ce.CECalculator;
 import org.biojava.nbio.structure.align.ce.CeParameters;
 import org.biojava.nbio.structure.align.model.AFPChain;
 import org.biojava.nbio.structure.jama.Matrix;
+import org.biojava.nbio.structure.utils.FragmentScores;
+import org.biojava.nbio.structure.utils.CancellationToken;
+import org.biojava.nbio.structure.utils.ParallelWorkers;
 
-public class CESymmCalculator extends CECalculator {
+public class CESymmCalculator extends CECalculator implements TracedCalculator {
 
 	public static final int MIN_ANGLE = 20;
 
+	// reading the clock on every extension would cost more than the extension
+	static final int CHECK_INTERVAL = 1 << 14;
+
 	Atom origin1 = null ;
 	Atom origin2  = null;
 
+	private double minAngle = MIN_ANGLE;
+
+	// the band the fragment matrix is restricted to, or null for the whole matrix
+	private int[] bandOffsets = null;
+	private int bandWidth = 0;
+	private int bandPeriod = 0;
+
+	private CancellationToken cancellation = null;
+
 	public CESymmCalculator(CeParameters params) {
 		super(params);
 
 	}
 
+	/**
+	 * @param cancellation A token polled while tracing, which stops the trace with a
+	 * {@link java.util.concurrent.CancellationException} when it fires; or null
+	 */
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	public double getMinAngle() {
+		return minAngle;
+	}
+
+	/**
+	 * @param minAngle The smallest angle in degrees between the vectors from the
+	 * centroid to two joined fragments, after superimposing them. 0 skips the
+	 * check, as {@link CeSymm} does.
+	 */
+	public void setMinAngle(double minAngle) {
+		this.minAngle = minAngle;
+	}
+
+	/**
+	 * Restricts the fragment similarity matrix, and the seeds of the trace, to a
+	 * band of offsets. Cell (i,j) is in the band if {@code j-i} is within
+	 * {@code width} of {@code offsets[i]}, both modulo {@code period}. Cells
+	 * outside of it aren't scored, and read as blanked out.
+	 * @param offsets The offset of each row, or null to use the whole matrix
+	 * @param width
+	 * @param period The length of the structure, for a self-alignment against its duplicate
+	 */
+	public void setBand(int[] offsets, int width, int period) {
+		bandOffsets = offsets;
+		bandWidth = width;
+		bandPeriod = period;
+	}
+
+	/**
+	 * @return Whether the matrix is restricted to a {@link #setBand(int[], int, int) band}
+	 */
+	public boolean hasBand() {
+		return bandOffsets != null;
+	}
+
+	/**
+	 * @return The first column from {@code ise2} on that is in the band of row {@code ise1}
+	 */
+	private int nextInBand(int ise1, int ise2) {
+		if (bandOffsets == null || 2 * bandWidth + 1 >= bandPeriod) return ise2;
+		int r = ((ise2 - ise1 - bandOffsets[ise1]) % bandPeriod + bandPeriod) % bandPeriod;
+		if (r <= bandWidth || r >= bandPeriod - bandWidth) return ise2;
+		return ise2 + bandPeriod - bandWidth - r;
+	}
+
+	/**
+	 * Builds the fragment similarity matrix by sliding each fragment pair
+	 * along its diagonal, rather than re-summing all intramolecular distances
+	 * of both fragments for every cell. Only the cells of the band are scored
+	 * if there is one.
+	 * @see FragmentScores#sumOfDistances(double[][], double[][], int, int, int, int)
+	 */
+	@Override
+	public double[][] initSumOfDistances(int nse1, int nse2, int winSize,
+			int winSizeComb1, Atom[] ca1, Atom[] ca2) {
+		if (bandOffsets == null) {
+			return FragmentScores.sumOfDistances(getDist1(), getDist2(), nse1, nse2, winSize, winSizeComb1);
+		}
+		FragmentScores.CellFilter inBand = new FragmentScores.CellFilter() {
+			@Override
+			public boolean accept(int ise1, int ise2) {
+				return nextInBand(ise1, ise2) == ise2;
+			}
+		};
+		return FragmentScores.sumOfDistances(getDist1(), getDist2(), nse1, nse2, winSize, winSizeComb1,
+				inBand, CeSymmMatrix.BLANK_PENALTY);
+	}
+
 	@Override
 	public void traceFragmentMatrix( AFPChain afpChain,
 			Atom[] ca1, Atom[] ca2) {
@@ -73,13 +170,10 @@ public class CESymmCalculator extends CECalculator {
 
 		int traceMaxSize=nse1<nse2?nse1:nse2;
 
-		bestTrace1 = new int [traceMaxSize];
-		bestTrace2 = new int [traceMaxSize];
-		trace1     = new int [traceMaxSize]; 
-		trace2     = new int [traceMaxSize];
-
-		int[] traceIndex     = new int [traceMaxSize];
-		int[] traceIterLevel = new int [traceMaxSize];
+		// borrow the trace arrays from this thread's workspace rather than allocating them
+		CeSymmWorkspace workspace = CeSymmWorkspace.get();
+		bestTrace1 = workspace.getBestTrace1(traceMaxSize);
+		bestTrace2 = workspace.getBestTrace2(traceMaxSize);
 
 		int ise11;
 		int ise12;
@@ -97,7 +191,13 @@ public class CESymmCalculator extends CECalculator {
 		} else {
 			iterDepth = traceMaxSize;
 		}
-		double[][] traceScore = new double[traceMaxSize][iterDepth];
+		CeSymmWorkspace.TraceBuffers buffers = workspace.getTraceBuffers(traceMaxSize, iterDepth);
+		trace1     = buffers.trace1;
+		trace2     = buffers.trace2;
+
+		int[] traceIndex     = buffers.traceIndex;
+		int[] traceIterLevel = buffers.traceIterLevel;
+		double[][] traceScore = buffers.traceScore;
 
 		nTraces =0;
 		long tracesLimit=(long)5e7;
@@ -114,8 +214,8 @@ public class CESymmCalculator extends CECalculator {
 		int jse2=0;
 
 		int bestTracesMax=30;
-		bestTraces1 = new int[bestTracesMax][traceMaxSize];
-		bestTraces2 = new int[bestTracesMax][ traceMaxSize];
+		bestTraces1 = workspace.getBestTraces1(bestTracesMax, traceMaxSize);
+		bestTraces2 = workspace.getBestTraces2(bestTracesMax, traceMaxSize);
 		bestTracesN=new int [bestTracesMax];
 		bestTracesScores = new double [bestTracesMax];
 		for(int it=0; it<bestTracesMax; it++) {
@@ -174,12 +274,29 @@ public class CESymmCalculator extends CECalculator {
 					if(ise22>nse2) ise22=nse2;				
 				}
 
+				if(iter==0 && getThreads() != 1) {
+					// trace the seeds on several threads, then merge them in serial order
+					SeedScan scan = new SeedScan(ca2, nse1, nse2, winSize, winSizeComb1, winSizeComb2,
+							iterDepth, traceMaxSize, bestTracesMax, rmsdThr, rmsdThrJoin, userRMSDMax, tracesLimit);
+					if(!scan.scan(getThreads())) return;
+					continue iterLoop;
+				}
+
 				//System.out.println("ise1Loop: " + ise11 + " " + ise12 + " " + ise21 + " " + ise22);
 				ise1Loop:
 					for(int ise1_=ise11; ise1_<ise12; ise1_++) {
 						ise2Loop:
 							for(int ise2_=ise21; ise2_<ise22; ise2_++) {
 
+								if(iter==0 && bandOffsets!=null) {
+									// skip straight to the next seed in the band
+									int next = nextInBand(ise1_, ise2_);
+									if(next!=ise2_) {
+										ise2_ = next-1;
+										continue ise2Loop;
+									}
+								}
+
 								ise1=ise1_;
 								ise2=ise2_;
 								if(iter>1 && ise1==ise11+1 && ise2==ise21+1) continue ise2Loop;
@@ -260,6 +377,9 @@ public class CESymmCalculator extends CECalculator {
 
 														return;
 													}
+													if(cancellation != null && nTraces % CHECK_INTERVAL == 0) {
+														cancellation.check();
+													}
 
 													score=0.0;
 
@@ -287,9 +407,11 @@ public class CESymmCalculator extends CECalculator {
 													if(score1>userRMSDMax)
 														continue itLoop;
 
-													double angle = checkAngle(mse1,mse2, ca2, ca2, winSize);
-													if ( angle < MIN_ANGLE)
-														continue itLoop;
+													if(minAngle > 0) {
+														double angle = checkAngle(mse1,mse2, ca2, ca2, winSize);
+														if ( angle < minAngle)
+															continue itLoop;
+													}
 
 													score2=score1;
 
@@ -427,6 +549,59 @@ public class CESymmCalculator extends CECalculator {
 
 	}
 
+	/**
+	 * With more than one thread, superimposes the candidate traces concurrently
+	 * before the superclass picks the best one. The candidate the serial code
+	 * would choose (the lowest RMSD among the longest traces, the first one on
+	 * ties) is moved to the front and the others are dropped, so the superclass
+	 * only superimposes the winner once more.
+	 */
+	@Override
+	public void nextStep(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+		if (nBestTrace > 0 && nBestTraces > 1 && getThreads() != 1) {
+			CandidateScan scan = new CandidateScan(ca1, ca2, params.getWinSize());
+			ParallelWorkers.run(Math.min(scan.rmsds.length, resolveThreads()), scan);
+			keepOnlyBestTrace(scan.getBest());
+		}
+		super.nextStep(afpChain, ca1, ca2);
+	}
+
+	@Override
+	public double getBestTraceScore() {
+		return bestTraceScore;
+	}
+
+	@Override
+	public double getBestTraceZScore() {
+		if (nBestTrace == 0) return 0;
+		int winSize = params.getWinSize();
+		int last = nBestTrace - 1;
+		int gaps = bestTrace1[last] + winSize - bestTrace1[0]
+				+ bestTrace2[last] + winSize - bestTrace2[0] - nBestTrace * 2 * winSize;
+		return zStrAlign(winSize, nBestTrace, bestTraceScore, gaps);
+	}
+
+	/**
+	 * Moves best trace {@code ir} to the front and forgets the others.
+	 */
+	private void keepOnlyBestTrace(int ir) {
+		if (ir != 0) {
+			int[] t1 = bestTraces1[0];
+			bestTraces1[0] = bestTraces1[ir];
+			bestTraces1[ir] = t1;
+			int[] t2 = bestTraces2[0];
+			bestTraces2[0] = bestTraces2[ir];
+			bestTraces2[ir] = t2;
+			int n = bestTracesN[0];
+			bestTracesN[0] = bestTracesN[ir];
+			bestTracesN[ir] = n;
+			double score = bestTracesScores[0];
+			bestTracesScores[0] = bestTracesScores[ir];
+			bestTracesScores[ir] = score;
+		}
+		nBestTraces = 1;
+	}
+
 	/** do a SVN of the AFPs at positions mse1, mse2. Returns the rotation angle between the AFPs
 	 * 
 	 * @param mse1
@@ -496,4 +671,504 @@ public class CESymmCalculator extends CECalculator {
 		}
 	}
 
+	/**
+	 * @return The number of threads from the parameters, or 1 if they aren't {@link CESymmParameters}
+	 */
+	private int getThreads() {
+		if (params instanceof CESymmParameters) {
+			return ((CESymmParameters) params).getThreads();
+		}
+		return 1;
+	}
+
+	/**
+	 * @return {@link #getThreads()}, with 0 replaced by the number of processors
+	 */
+	private int resolveThreads() {
+		int threads = getThreads();
+		return threads < 1 ? ParallelWorkers.getDefaultThreads() : threads;
+	}
+
+	/**
+	 * A trace extension found while scanning one seed: the state in which the
+	 * serial scan would update the best trace and call {@link #doIter0}.
+	 */
+	private static class TraceEvent {
+		final int seed;
+		final long count;
+		final int n;
+		final double score;
+		final int[] trace1;
+		final int[] trace2;
+		TraceEvent(int seed, long count, int n, double score, int[] trace1, int[] trace2) {
+			this.seed = seed;
+			this.count = count;
+			this.n = n;
+			this.score = score;
+			this.trace1 = new int[n];
+			this.trace2 = new int[n];
+			System.arraycopy(trace1, 0, this.trace1, 0, n);
+			System.arraycopy(trace2, 0, this.trace2, 0, n);
+		}
+	}
+
+	/**
+	 * The traced seeds of one row (one value of ise1), in scan order.
+	 */
+	private static class SeedRow {
+		int nSeeds = 0;
+		int[] ise2 = new int[8];
+		long[] count = new long[8]; // nTraces within the row after each seed
+		List<TraceEvent> events = new ArrayList<TraceEvent>();
+
+		// the best trace keys seen in this row, for pruning
+		final int[] topN;
+		final double[] topScore;
+		int nTop = 0;
+
+		SeedRow(int bestTracesMax) {
+			topN = new int[bestTracesMax];
+			topScore = new double[bestTracesMax];
+		}
+
+		int addSeed(int seedIse2) {
+			if (nSeeds == ise2.length) {
+				ise2 = Arrays.copyOf(ise2, nSeeds * 2);
+				count = Arrays.copyOf(count, nSeeds * 2);
+			}
+			ise2[nSeeds] = seedIse2;
+			return nSeeds++;
+		}
+
+		/**
+		 * Records that a trace of length n with score was found.
+		 * @return Whether at least bestTracesMax earlier traces of this row are as good
+		 */
+		boolean offer(int n, double score) {
+			if (nTop < topN.length) {
+				topN[nTop] = n;
+				topScore[nTop] = score;
+				nTop++;
+				return false;
+			}
+			int worst = 0;
+			for (int i = 1; i < nTop; i++) {
+				if (isBetter(topN[worst], topScore[worst], topN[i], topScore[i])) worst = i;
+			}
+			if (!isBetter(n, score, topN[worst], topScore[worst])) return true;
+			topN[worst] = n;
+			topScore[worst] = score;
+			return false;
+		}
+	}
+
+	/**
+	 * The order {@link #doIter0} ranks traces by: longer first, then lower score.
+	 */
+	private static boolean isBetter(int n1, double score1, int n2, double score2) {
+		return n1 > n2 || (n1 == n2 && score2 > score1);
+	}
+
+	/**
+	 * The seed scan of iteration 0 of {@link #traceFragmentMatrix}, spread over several threads.
+	 *
+	 * Workers claim rows of seeds and trace each seed with their own buffers.
+	 * Each trace extension is recorded as a {@link TraceEvent}, and finished rows
+	 * are replayed in the serial order through the same best-trace update and
+	 * {@link #doIter0} as the serial scan, including the seed-skipping condition
+	 * on nBestTrace and the {@code tracesLimit} cut-off. The result is therefore
+	 * identical to the serial scan.
+	 *
+	 * To keep memory bounded, workers drop events that can't enter the best
+	 * traces: those no better than the worst of a full merged list, or than
+	 * bestTracesMax earlier events of the same row. Both only ever get better
+	 * as the scan proceeds, so dropping is safe whenever the worker sees them.
+	 */
+	private class SeedScan implements Runnable {
+
+		private final Atom[] ca2;
+		private final int nse1;
+		private final int nse2;
+		private final int winSize;
+		private final int winSizeComb1;
+		private final int winSizeComb2;
+		private final int iterDepth;
+		private final int traceMaxSize;
+		private final int bestTracesMax;
+		private final double rmsdThr;
+		private final double rmsdThrJoin;
+		private final double userRMSDMax;
+		private final long tracesLimit;
+		private final double[][] dist1;
+		private final double[][] dist2;
+		private final int[] traceIndexContainer;
+
+		private final AtomicInteger nextRow = new AtomicInteger();
+		private volatile boolean stopped = false;
+
+		// published by the merge, read by the workers for pruning
+		private volatile int mergedBestTrace;
+		private volatile double[] mergedWorst; // {n, score} once the best traces are full
+
+		// merge state
+		private final SeedRow[] pending;
+		private int nextToMerge = 0;
+		private long mergedTraces = 0;
+		private int newBestTrace = 0;
+		private boolean limitReached = false;
+
+		SeedScan(Atom[] ca2, int nse1, int nse2, int winSize, int winSizeComb1, int winSizeComb2,
+				int iterDepth, int traceMaxSize, int bestTracesMax, double rmsdThr, double rmsdThrJoin,
+				double userRMSDMax, long tracesLimit) {
+			this.ca2 = ca2;
+			this.nse1 = nse1;
+			this.nse2 = nse2;
+			this.winSize = winSize;
+			this.winSizeComb1 = winSizeComb1;
+			this.winSizeComb2 = winSizeComb2;
+			this.iterDepth = iterDepth;
+			this.traceMaxSize = traceMaxSize;
+			this.bestTracesMax = bestTracesMax;
+			this.rmsdThr = rmsdThr;
+			this.rmsdThrJoin = rmsdThrJoin;
+			this.userRMSDMax = userRMSDMax;
+			this.tracesLimit = tracesLimit;
+			dist1 = getDist1();
+			dist2 = getDist2();
+			pending = new SeedRow[nse1];
+			mergedBestTrace = nBestTrace;
+
+			// same weights as CECalculator.extractFragments
+			traceIndexContainer = new int[traceMaxSize];
+			for (int i = 0; i < traceMaxSize; i++) {
+				traceIndexContainer[i] = (i+1)*i*winSize/2+(i+1)*winSizeComb1;
+			}
+		}
+
+		/**
+		 * @return false if tracesLimit was exceeded, in which case the serial scan returns early
+		 */
+		boolean scan(int threads) {
+			// checkAngle initializes these lazily, which isn't safe from several threads
+			if (origin1 == null) origin1 = Calc.getCentroid(ca2);
+			if (origin2 == null) origin2 = Calc.getCentroid(ca2);
+
+			ParallelWorkers.run(threads, this);
+
+			synchronized (this) {
+				nTrace = 0;
+				nTraces = limitReached ? tracesLimit + 1 : mergedTraces;
+				return !limitReached;
+			}
+		}
+
+		@Override
+		public void run() {
+			CeSymmWorkspace.TraceBuffers buffers = CeSymmWorkspace.get().getScanBuffers(traceMaxSize, iterDepth);
+			int[] trace1 = buffers.trace1;
+			int[] trace2 = buffers.trace2;
+			int[] traceIndex = buffers.traceIndex;
+			double[][] traceScore = buffers.traceScore;
+
+			int ise1;
+			while (!stopped && (ise1 = nextRow.getAndIncrement()) < nse1) {
+				SeedRow row = new SeedRow(bestTracesMax);
+				long count = 0;
+				for (int ise2 = nextInBand(ise1, 0); ise2 < nse2 && !stopped; ise2 = nextInBand(ise1, ise2+1)) {
+					// nBestTrace only grows, so a seed skipped now is skipped in the serial scan
+					int nBest = mergedBestTrace;
+					if (ise1 > nse1-winSize*(nBest-1) || ise2 > nse2-winSize*(nBest-1)) break;
+
+					if (mat[ise1][ise2] < 0.0) continue;
+					if (mat[ise1][ise2] > rmsdThr) continue;
+					if (mat[ise1][ise2] > userRMSDMax) continue;
+
+					if (cancellation != null) cancellation.check();
+
+					int seed = row.addSeed(ise2);
+					count = traceSeed(ise1, ise2, seed, count, row, trace1, trace2, traceIndex, traceScore);
+					row.count[seed] = count;
+					if (count > tracesLimit) break;
+				}
+				complete(ise1, row);
+			}
+		}
+
+		/**
+		 * Extends a single seed as in {@link #traceFragmentMatrix} at iteration 0.
+		 * @return The number of traces tried in the row so far
+		 */
+		private long traceSeed(int ise1, int ise2, int seed, long count, SeedRow row,
+				int[] trace1, int[] trace2, int[] traceIndex, double[][] traceScore) {
+
+			int nTrace = 0;
+			trace1[nTrace] = ise1;
+			trace2[nTrace] = ise2;
+			traceIndex[nTrace] = 0;
+			double score0 = mat[ise1][ise2];
+			nTrace++;
+			boolean isTraceUp = true;
+
+			while (nTrace > 0) {
+
+				int kse1 = trace1[nTrace-1]+winSize;
+				int kse2 = trace2[nTrace-1]+winSize;
+				while (true) {
+					if (kse1 > nse1-winSize-1) break;
+					if (kse2 > nse2-winSize-1) break;
+					if (mat[kse1][kse2] >= 0.0) break;
+					kse1++;
+					kse2++;
+				}
+
+				int traceIndex_ = -1;
+				if (isTraceUp) {
+					int nBestExtTrace = nTrace;
+					double bestExtScore = 100.0;
+					for (int it = 0; it < iterDepth; it++) {
+						int jgap = (it+1)/2;
+						int jdir = (it+1)%2;
+						int mse1, mse2;
+						if (jdir == 0) {
+							mse1 = kse1+jgap;
+							mse2 = kse2;
+						} else {
+							mse1 = kse1;
+							mse2 = kse2+jgap;
+						}
+
+						if (mse1 > nse1-winSize-1) continue;
+						if (mse2 > nse2-winSize-1) continue;
+						if (mat[mse1][mse2] < 0.0) continue;
+						if (mat[mse1][mse2] > rmsdThr) continue;
+						if (mat[mse1][mse2] > userRMSDMax) continue;
+
+						count++;
+						if (count > tracesLimit) return count;
+
+						double score = scoreFromDistances(trace1, trace2, nTrace, mse1, mse2);
+						double score1 = score/(nTrace*winSize);
+						if (score1 > rmsdThrJoin) continue;
+						if (score1 > userRMSDMax) continue;
+
+						if (minAngle > 0) {
+							double angle = checkAngle(mse1, mse2, ca2, ca2, winSize);
+							if (angle < minAngle) continue;
+						}
+
+						double score2 = score1;
+						if (nTrace > nBestExtTrace || (nTrace == nBestExtTrace && score2 < bestExtScore)) {
+							bestExtScore = score2;
+							nBestExtTrace = nTrace;
+							traceIndex_ = it;
+							traceScore[nTrace-1][traceIndex_] = score1;
+						}
+					}
+				}
+
+				int jse1 = 0;
+				int jse2 = 0;
+				double traceTotalScore = 0;
+				if (traceIndex_ != -1) {
+					int jgap = (traceIndex_+1)/2;
+					int jdir = (traceIndex_+1)%2;
+					if (jdir == 0) {
+						jse1 = kse1+jgap;
+						jse2 = kse2;
+					} else {
+						jse1 = kse1;
+						jse2 = kse2+jgap;
+					}
+
+					double score1 = (traceScore[nTrace-1][traceIndex_]*winSizeComb2*nTrace+
+							mat[jse1][jse2]*winSizeComb1)/(winSizeComb2*nTrace+
+									winSizeComb1);
+					double val = nTrace > 1 ? traceScore[nTrace-2][traceIndex[nTrace-1]] : score0;
+					double score2 = (val * traceIndexContainer[nTrace-1]+score1*(traceIndexContainer[nTrace]-traceIndexContainer[nTrace-1]))/traceIndexContainer[nTrace];
+
+					if (score2 > rmsdThrJoin)
+						traceIndex_ = -1;
+					else if (score2 > userRMSDMax)
+						traceIndex_ = -1;
+					else {
+						traceScore[nTrace-1][traceIndex_] = score2;
+						traceTotalScore = score2;
+					}
+				}
+
+				if (traceIndex_ == -1) {
+					nTrace--;
+					isTraceUp = false;
+					continue;
+				}
+
+				trace1[nTrace] = jse1;
+				trace2[nTrace] = jse2;
+				traceIndex[nTrace] = traceIndex_;
+				nTrace++;
+				isTraceUp = true;
+
+				boolean dominatedInRow = row.offer(nTrace, traceTotalScore);
+				double[] worst = mergedWorst;
+				boolean dominatedOverall = worst != null && !isBetter(nTrace, traceTotalScore, (int) worst[0], worst[1]);
+				if (!dominatedInRow && !dominatedOverall) {
+					row.events.add(new TraceEvent(seed, count, nTrace, traceTotalScore, trace1, trace2));
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Same sum as {@link CECalculator#getScoreFromDistanceMatrices(int, int, int)},
+		 * but on a worker's own trace.
+		 */
+		private double scoreFromDistances(int[] trace1, int[] trace2, int nTrace, int mse1, int mse2) {
+			double score = 0;
+			for (int itrace = 0; itrace < nTrace; itrace++) {
+				score += Math.abs(dist1[trace1[itrace]][mse1]-
+						dist2[trace2[itrace]][mse2]);
+				score += Math.abs(dist1[trace1[itrace]+winSize-1][mse1+winSize-1]-
+						dist2[trace2[itrace]+winSize-1][mse2+winSize-1]);
+				for (int id = 1; id < winSize-1; id++)
+					score += Math.abs(dist1[trace1[itrace]+id][mse1+winSize-1-id]-
+							dist2[trace2[itrace]+id][mse2+winSize-1-id]);
+			}
+			return score;
+		}
+
+		/**
+		 * Hands in a finished row and merges every row that is now next in order.
+		 */
+		private synchronized void complete(int ise1, SeedRow row) {
+			pending[ise1] = row;
+			while (!limitReached && nextToMerge < nse1 && pending[nextToMerge] != null) {
+				SeedRow next = pending[nextToMerge];
+				pending[nextToMerge] = null;
+				if (!replay(nextToMerge, next)) {
+					limitReached = true;
+					stopped = true;
+				}
+				nextToMerge++;
+			}
+			mergedBestTrace = nBestTrace;
+			if (nBestTraces == bestTracesMax) {
+				mergedWorst = new double[] {bestTracesN[newBestTrace], bestTracesScores[newBestTrace]};
+			}
+		}
+
+		/**
+		 * Applies a row's events as the serial scan would have.
+		 * @return false if tracesLimit was exceeded
+		 */
+		private boolean replay(int ise1, SeedRow row) {
+			long base = mergedTraces;
+			int event = 0;
+			for (int seed = 0; seed < row.nSeeds; seed++) {
+				// later seeds of the row would be skipped as well
+				if (ise1 > nse1-winSize*(nBestTrace-1) || row.ise2[seed] > nse2-winSize*(nBestTrace-1)) break;
+
+				for (; event < row.events.size() && row.events.get(event).seed == seed; event++) {
+					TraceEvent e = row.events.get(event);
+					if (base + e.count > tracesLimit) return false;
+					apply(e);
+				}
+				mergedTraces = base + row.count[seed];
+				if (mergedTraces > tracesLimit) return false;
+			}
+			return true;
+		}
+
+		private void apply(TraceEvent e) {
+			nTrace = e.n;
+			System.arraycopy(e.trace1, 0, trace1, 0, e.n);
+			System.arraycopy(e.trace2, 0, trace2, 0, e.n);
+
+			if (nTrace > nBestTrace ||
+					(nTrace == nBestTrace &&
+					bestTraceScore > e.score)) {
+				for (int itrace = 0; itrace < nTrace; itrace++) {
+					bestTrace1[itrace] = trace1[itrace];
+					bestTrace2[itrace] = trace2[itrace];
+				}
+				bestTraceScore = e.score;
+				nBestTrace = nTrace;
+			}
+			newBestTrace = doIter0(newBestTrace, e.score, bestTracesMax);
+		}
+	}
+
+
+	/**
+	 * Superimposes each of the best traces on its own copy of the coordinates.
+	 */
+	private class CandidateScan implements Runnable {
+
+		private final Atom[] ca1;
+		private final Atom[] ca2;
+		private final int winSize;
+		private final double[] rmsds;
+		private final AtomicInteger next = new AtomicInteger();
+
+		public CandidateScan(Atom[] ca1, Atom[] ca2, int winSize) {
+			this.ca1 = ca1;
+			this.ca2 = ca2;
+			this.winSize = winSize;
+			rmsds = new double[nBestTraces];
+		}
+
+		@Override
+		public void run() {
+			int ir;
+			while ((ir = next.getAndIncrement()) < rmsds.length) {
+				// only the longest traces are considered
+				if (bestTracesN[ir] != nBestTrace) continue;
+				try {
+					rmsds[ir] = superimpose(ir);
+				} catch (StructureException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		private double superimpose(int ir) throws StructureException {
+			int len = bestTracesN[ir] * winSize;
+			Atom[] cod1 = new Atom[len];
+			Atom[] cod2 = new Atom[len];
+			int is = 0;
+			for (int jt = 0; jt < bestTracesN[ir]; jt++) {
+				for (int i = 0; i < winSize; i++) {
+					cod1[is + i] = ca1[bestTraces1[ir][jt] + i];
+					cod2[is + i] = (Atom) ca2[bestTraces2[ir][jt] + i].clone();
+				}
+				is += winSize;
+			}
+
+			SVDSuperimposer svd = new SVDSuperimposer(cod1, cod2);
+			Matrix matrix = svd.getRotation();
+			Atom shift = svd.getTranslation();
+			for (Atom a : cod2) {
+				Calc.rotate(a, matrix);
+				Calc.shift(a, shift);
+			}
+			return SVDSuperimposer.getRMS(cod1, cod2);
+		}
+
+		/**
+		 * @return The index the serial selection would pick
+		 */
+		public int getBest() {
+			// mirrors the serial loop, including its starting values
+			double rmsd = 100.0;
+			int best = 0;
+			for (int ir = 0; ir < rmsds.length; ir++) {
+				if (bestTracesN[ir] != nBestTrace) continue;
+				if (rmsd > rmsds[ir]) {
+					best = ir;
+					rmsd = rmsds[ir];
+				}
+			}
+			return best;
+		}
+	}
+
 }
@@ -1,5 +1,6 @@
 package org.biojava.nbio.structure.align.symm;
 
+import java.io.File;
 import java.util.List;
 
 import org.biojava.nbio.structure.align.ce.CeCPMain;
@@ -11,11 +12,17 @@ import org.biojava.nbio.structure.align.ce.CeParameters;
  * @author Spencer Bliven
  *
  */
-public class CESymmParameters extends CeParameters {
+public class CESymmParameters extends CeParameters implements Cloneable {
 
 	private boolean refineResult;
 	private OrderDetectorMethod orderDetectorMethod;
 	private int maxNrAlternatives; // Not exposed in UI
+	private int threads; // Not exposed in UI
+	private int mappedMatrixLength; // Not exposed in UI
+	private File scratchDirectory; // Not exposed in UI
+	private int coarseStep; // Not exposed in UI
+	private long timeLimit; // Not exposed in UI
+	private int maxRefinedOrder; // Not exposed in UI
 
 	
 	public static enum OrderDetectorMethod {
@@ -28,6 +35,12 @@ public class CESymmParameters extends CeParameters {
 		refineResult = false;
 		orderDetectorMethod = OrderDetectorMethod.DEFAULT;
 		maxNrAlternatives = 1;
+		threads = 1;
+		mappedMatrixLength = 0;
+		scratchDirectory = null;
+		coarseStep = 1;
+		timeLimit = 0;
+		maxRefinedOrder = 0;
 	}
 
 	@Override
@@ -40,16 +53,39 @@ public class CESymmParameters extends CeParameters {
 		+ ", showAFPRanges=" + showAFPRanges 
 		+ ", maxOptRMSD=" + maxOptRMSD
 		+ ", seqWeight=" + seqWeight
+		+ ", threads=" + threads
+		+ ", mappedMatrixLength=" + mappedMatrixLength
+		+ ", coarseStep=" + coarseStep
+		+ ", timeLimit=" + timeLimit
+		+ ", maxRefinedOrder=" + maxRefinedOrder
 		+ "]";
 	}
 
 
+	/**
+	 * @return A shallow copy of these parameters
+	 */
+	@Override
+	public CESymmParameters clone() {
+		try {
+			return (CESymmParameters) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
 	@Override
 	public void reset(){
 		super.reset();
 		refineResult = false;
 		orderDetectorMethod = OrderDetectorMethod.DEFAULT;
 		maxNrAlternatives = 1;
+		threads = 1;
+		mappedMatrixLength = 0;
+		scratchDirectory = null;
+		coarseStep = 1;
+		timeLimit = 0;
+		maxRefinedOrder = 0;
 	}
 
 
@@ -121,4 +157,114 @@ public class CESymmParameters extends CeParameters {
 	public int getMaxNrAlternatives() {
 		return maxNrAlternatives;
 	}
+
+	/**
+	 * @return The number of threads a single alignment may use. 1 (the default) runs serially.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Lets a single alignment spread its seed scan, the superposition of its
+	 * candidate traces, and its refinement for several orders over several
+	 * threads. Any number other than 1 opts in to the trace of
+	 * {@link CESymmCalculator}, a reimplementation of the CE trace that can scan
+	 * in parallel, instead of the stock CECalculator's. Its result doesn't
+	 * depend on the number of threads, but isn't guaranteed to be the same as
+	 * with 1 thread.
+	 * @param threads The number of threads, including the calling thread; 0 to use one per processor
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return The structure length from which the fragment similarity matrix is kept in a scratch file; 0 if never
+	 */
+	public int getMappedMatrixLength() {
+		return mappedMatrixLength;
+	}
+
+	/**
+	 * Keeps the fragment similarity matrix of structures with at least this many
+	 * residues in a memory-mapped scratch file between alternative alignments,
+	 * rather than on the heap. The calculator's working matrices stay on the
+	 * heap, so this saves one copy of the matrix and doesn't raise the largest
+	 * structure that can be aligned. An alignment whose scratch file can't be
+	 * created fails with a {@link org.biojava.nbio.structure.StructureException}.
+	 * @param mappedMatrixLength A number of residues, or 0 (the default) to always use the heap
+	 */
+	public void setMappedMatrixLength(int mappedMatrixLength) {
+		this.mappedMatrixLength = mappedMatrixLength;
+	}
+
+	/**
+	 * @return The directory for scratch files, or null for the system default
+	 */
+	public File getScratchDirectory() {
+		return scratchDirectory;
+	}
+
+	public void setScratchDirectory(File scratchDirectory) {
+		this.scratchDirectory = scratchDirectory;
+	}
+
+	/**
+	 * @return The residue spacing of the coarse search; 1 (the default) searches only at full resolution
+	 */
+	public int getCoarseStep() {
+		return coarseStep;
+	}
+
+	/**
+	 * Searches first on every {@code coarseStep}-th residue, with a proportionally
+	 * shorter fragment length, and then scores and traces the full-resolution matrix
+	 * only within {@code coarseStep*winSize} residues of the coarse alignment's offsets.
+	 * This is much faster on long structures, but can miss alignments the coarse
+	 * search doesn't find. Structures too short for a coarse search, or for which it
+	 * finds nothing, are searched at full resolution, and so are all structures when
+	 * {@link #getMaxNrAlternatives() alternative alignments} are searched.
+	 * The banded search is traced by {@link CESymmCalculator}, as with several
+	 * {@link #setThreads(int) threads}.
+	 * @param coarseStep 2 or 3 for a coarse search; 1 to disable it
+	 */
+	public void setCoarseStep(int coarseStep) {
+		this.coarseStep = coarseStep;
+	}
+
+	/**
+	 * @return The number of milliseconds a single alignment may take; 0 (the default) for no limit
+	 */
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	/**
+	 * Stops alignments that take longer than this. The trace, optimization and
+	 * refinement check the time as they go, and {@link CeSymm#isTimedOut()}
+	 * reports an alignment that was stopped.
+	 * @param timeLimit A number of milliseconds, or 0 for no limit
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * @return The highest order refined for when refining for several orders; 0 (the default) to refine for the detected order only
+	 */
+	public int getMaxRefinedOrder() {
+		return maxRefinedOrder;
+	}
+
+	/**
+	 * When {@link #isRefineResult() refining}, refines for every order from 2 to
+	 * {@code maxRefinedOrder} and keeps the best refinement, rather than refining
+	 * only for the order the order detector guesses.
+	 * @param maxRefinedOrder The highest order, at least 2; 0 to refine for the detected order only
+	 * @see SymmRefiner#refineBestOrder(org.biojava.nbio.structure.align.model.AFPChain, org.biojava.nbio.structure.Atom[], org.biojava.nbio.structure.Atom[], int, int, org.biojava.nbio.structure.utils.CancellationToken)
+	 */
+	public void setMaxRefinedOrder(int maxRefinedOrder) {
+		this.maxRefinedOrder = maxRefinedOrder;
+	}
 }
@@ -0,0 +1,54 @@
+package org.biojava.nbio.structure.align.symm;
+
+import org.biojava.nbio.structure.align.ce.CECalculator;
+import org.biojava.nbio.structure.align.ce.CeParameters;
+import org.biojava.nbio.structure.utils.CancellationToken;
+
+/**
+ * A {@link CECalculator} whose trace can be stopped by a {@link CancellationToken}.
+ *
+ * The trace scores every candidate extension with
+ * {@link #getScoreFromDistanceMatrices(int, int, int)}, so the token is polled
+ * there, every {@link CESymmCalculator#CHECK_INTERVAL} extensions. A fired token surfaces as a
+ * {@link java.util.concurrent.CancellationException}.
+ *
+ * This is the calculator CeSymm aligns with unless its parameters opt in to
+ * {@link CESymmCalculator}'s own trace.
+ *
+ * @author dmyersturnbull
+ */
+class CancellableCalculator extends CECalculator implements TracedCalculator {
+
+	private final CancellationToken cancellation;
+	private int extensions = 0;
+
+	/**
+	 * @param cancellation The token to poll, or null to never stop
+	 */
+	CancellableCalculator(CeParameters params, CancellationToken cancellation) {
+		super(params);
+		this.cancellation = cancellation;
+	}
+
+	@Override
+	protected double getScoreFromDistanceMatrices(int mse1, int mse2, int winSize) {
+		if (cancellation != null && ++extensions % CESymmCalculator.CHECK_INTERVAL == 0) cancellation.check();
+		return super.getScoreFromDistanceMatrices(mse1, mse2, winSize);
+	}
+
+	@Override
+	public double getBestTraceScore() {
+		return bestTraceScore;
+	}
+
+	@Override
+	public double getBestTraceZScore() {
+		if (nBestTrace == 0) return 0;
+		int winSize = params.getWinSize();
+		int last = nBestTrace - 1;
+		int gaps = bestTrace1[last] + winSize - bestTrace1[0]
+				+ bestTrace2[last] + winSize - bestTrace2[0] - nBestTrace * 2 * winSize;
+		return zStrAlign(winSize, nBestTrace, bestTraceScore, gaps);
+	}
+
+}
@@ -1,6 +1,8 @@
 package org.biojava.nbio.structure.align.symm;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Calc;
@@ -13,13 +15,14 @@ import org.biojava.nbio.structure.align.ce.CeCPMain;
 import org.biojava.nbio.structure.align.ce.ConfigStrucAligParams;
 import org.biojava.nbio.structure.align.ce.MatrixListener;
 import org.biojava.nbio.structure.align.model.AFPChain;
-import org.biojava.nbio.structure.align.util.AFPChainScorer;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.jama.Matrix;
 import org.biojava.nbio.structure.align.symm.order.OrderDetectionFailedException;
 import org.biojava.nbio.structure.align.symm.order.OrderDetector;
 import org.biojava.nbio.structure.align.symm.order.SequenceFunctionOrderDetector;
+import org.biojava.nbio.structure.utils.CancellationToken;
+import org.biojava.nbio.structure.utils.SuperpositionCache;
 import org.biojava.nbio.structure.utils.SymmetryTools;
 
 /**
@@ -49,6 +52,19 @@ public class CeSymm extends AbstractStructureAlignment implements
 	CECalculator calculator;
 	CESymmParameters params;
 	// int loopCount ;
+
+	private CeSymmAbortPolicy abortPolicy = null;
+	private CeSymmAbortPolicy.Stage abortedAt = null;
+	// whether the policy is still to see the trace of the first alternative
+	private boolean tracePending = false;
+
+	private CancellationToken cancellationToken = null;
+	// fires when cancellationToken does, or when the time limit of the current alignment is up
+	private CancellationToken running = null;
+	private boolean timedOut = false;
+
+	// set by a sweep, to reuse the parts of the alignment that don't depend on the parameters
+	private CeSymmSweep.SharedState sharedState = null;
 	
 	public CeSymm() {
 		super();
@@ -105,13 +121,14 @@ public class CeSymm extends AbstractStructureAlignment implements
 
 	}
 
-	private static Matrix align(AFPChain afpChain, Atom[] ca1, Atom[] ca2,
-			CESymmParameters params, Matrix origM, CECalculator calculator,
-			int counter) throws StructureException {
+	private static CeSymmMatrix align(AFPChain afpChain, Atom[] ca1, Atom[] ca2,
+			CESymmParameters params, CeSymmMatrix origM, CECalculator calculator,
+			CancellationToken cancellation) throws StructureException {
 
 		int fragmentLength = params.getWinSize();
 
-		Atom[] ca2clone = SymmetryTools.cloneAtoms(ca2);
+		// the same duplicated array is aligned for every alternative, so reuse its clones
+		Atom[] ca2clone = SymmetryTools.cloneAtoms(ca2, CeSymmWorkspace.get());
 
 		int rows = ca1.length;
 		int cols = ca2.length;
@@ -124,9 +141,14 @@ public class CeSymm extends AbstractStructureAlignment implements
 			// Build alignment ca1 to ca2-ca2
 
 			afpChain = calculator.extractFragments(afpChain, ca1, ca2clone);
+			cancellation.check();
+
+			// CeSymm's side copy keeps only n columns, since the second half of ca2 repeats the first;
+			// the calculator's own matrix, break flags and distances stay full size
+			origM = newMatrix(calculator.getMatMatrix(), fragmentLength, params);
 
 			origM = SymmetryTools.blankOutPreviousAlignment(afpChain, ca2,
-					rows, cols, calculator, null, blankWindowSize);
+					rows, cols, calculator, origM, blankWindowSize);
 
 		} else {
 			// we are doing an iteration on a previous alignment
@@ -135,32 +157,163 @@ public class CeSymm extends AbstractStructureAlignment implements
 					rows, cols, calculator, origM, blankWindowSize);
 		}
 
-		Matrix clone = (Matrix) origM.clone();
-
 		// that's the matrix to run the alignment on..
-		calculator.setMatMatrix(clone.getArray());
+		// the calculator overwrites it during optimization, so refill its working array
+		calculator.setMatMatrix(origM.copyTo(calculator.getMatMatrix()));
 
 		calculator.traceFragmentMatrix(afpChain, ca1, ca2clone);
+		cancellation.check();
 
-		calculator.nextStep(afpChain, ca1, ca2clone);
+		try {
+			calculator.nextStep(afpChain, ca1, ca2clone);
+		} catch (TraceRejected e) {
+			// the abort policy stopped the alignment before the trace was optimized
+		}
 
 		afpChain.setAlgorithmName(algorithmName);
 		afpChain.setVersion(version);
 
-		afpChain.setDistanceMatrix(origM);
 		return origM;
 
 	}
 
+	/**
+	 * Aligns every {@link CESymmParameters#getCoarseStep() coarseStep}-th residue,
+	 * with a proportionally shorter fragment length, and returns for each residue
+	 * of {@code ca1} the offset (modulo the length of {@code ca2O}) of the
+	 * nearest residue pair of that coarse alignment.
+	 * @return The offsets, or null if the structure is too short for a coarse
+	 * search, the coarse alignment is empty, or alternative alignments are searched
+	 */
+	private static int[] coarseBand(Atom[] ca1, Atom[] ca2O, CESymmParameters params,
+			CancellationToken cancellation) throws StructureException {
+		int step = params.getCoarseStep();
+		if (step < 2) return null;
+		// the alternatives lie away from the first alignment, outside of its band
+		if (params.getMaxNrAlternatives() > 1) return null;
+		int coarseWinSize = Math.max(3, Math.round((float) params.getWinSize() / step));
+		if (ca1.length / step < 4 * coarseWinSize || ca2O.length / step < 4 * coarseWinSize) return null;
+
+		Atom[] coarse1 = downsample(ca1, step);
+		Atom[] coarse2 = downsample(ca2O, step);
+
+		// score the coarse alignment as the full one, only with shorter fragments and gaps
+		CESymmParameters coarseParams = params.clone();
+		coarseParams.setWinSize(coarseWinSize);
+		int gap = params.getMaxGapSize();
+		coarseParams.setMaxGapSize(gap > 0 ? Math.max(1, gap / step) : gap);
+		coarseParams.setCoarseStep(1);
+
+		CeSymm coarseSymm = new CeSymm();
+		coarseSymm.setCancellationToken(cancellation);
+		AFPChain coarse = coarseSymm.align(coarse1, coarse2, coarseParams);
+		if (coarse == null || coarse.getOptLength() == 0) return null;
+
+		int n = ca2O.length;
+		int[] offsets = new int[ca1.length];
+		int[] distance = new int[ca1.length];
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		int[][][] optAln = coarse.getOptAln();
+		int[] optLen = coarse.getOptLen();
+		for (int block = 0; block < coarse.getBlockNum(); block++) {
+			for (int k = 0; k < optLen[block]; k++) {
+				int i = optAln[block][0][k] * step;
+				int j = (optAln[block][1][k] % coarse2.length) * step;
+				if (i >= ca1.length) continue;
+				offsets[i] = ((j - i) % n + n) % n;
+				distance[i] = 0;
+			}
+		}
+		// residues between the coarse ones follow the nearest aligned one
+		for (int i = 1; i < offsets.length; i++) {
+			if (distance[i - 1] != Integer.MAX_VALUE && distance[i - 1] + 1 < distance[i]) {
+				distance[i] = distance[i - 1] + 1;
+				offsets[i] = offsets[i - 1];
+			}
+		}
+		for (int i = offsets.length - 2; i >= 0; i--) {
+			if (distance[i + 1] != Integer.MAX_VALUE && distance[i + 1] + 1 < distance[i]) {
+				distance[i] = distance[i + 1] + 1;
+				offsets[i] = offsets[i + 1];
+			}
+		}
+		return offsets;
+	}
+
+	private static Atom[] downsample(Atom[] ca, int step) {
+		Atom[] sampled = new Atom[(ca.length + step - 1) / step];
+		for (int i = 0; i < sampled.length; i++) {
+			sampled[i] = ca[i * step];
+		}
+		return sampled;
+	}
+
+	/**
+	 * Traces like {@link CECalculator}, unless the parameters opt in to the
+	 * trace of {@link CESymmCalculator}: by using more than one
+	 * {@link CESymmParameters#getThreads() thread}, or by a
+	 * {@link CESymmParameters#getCoarseStep() coarse search} that found a band.
+	 * @param bandOffsets The offsets of the band from the coarse search, or null
+	 * @param period The length of the structure
+	 */
+	private CECalculator newCalculator(int[] bandOffsets, int period) {
+		if (bandOffsets == null && params.getThreads() == 1) {
+			return sharedState != null ? sharedState.newCalculator(params, running)
+					: new CancellableCalculator(params, running);
+		}
+		CESymmCalculator symmCalculator = new CESymmCalculator(params);
+		// CeSymm has always traced without the angle check
+		symmCalculator.setMinAngle(0);
+		symmCalculator.setCancellationToken(running);
+		if (bandOffsets != null) {
+			// only score and trace near the diagonal of the coarse alignment
+			symmCalculator.setBand(bandOffsets, params.getWinSize() * params.getCoarseStep(), period);
+		}
+		return symmCalculator;
+	}
+
+	/**
+	 * Stores the matrix as the parameters ask: in a scratch file for long
+	 * structures, and otherwise on the heap.
+	 * @throws StructureException If the scratch file can't be created
+	 */
+	private static CeSymmMatrix newMatrix(double[][] mat, int fragmentLength, CESymmParameters params) throws StructureException {
+		int mappedLength = params.getMappedMatrixLength();
+		if (mappedLength > 0 && mat.length >= mappedLength) {
+			try {
+				return CeSymmMatrix.forSelfAlignment(mat, fragmentLength, params.getScratchDirectory());
+			} catch (IOException e) {
+				// the caller asked to keep this matrix off the heap, so don't quietly put it there
+				throw new StructureException("Could not keep the fragment matrix in a scratch file in "
+						+ params.getScratchDirectory(), e);
+			}
+		}
+		return CeSymmMatrix.forSelfAlignment(mat, fragmentLength);
+	}
+
 	@Override
 	public double[][] matrixInOptimizer(double[][] max) {
 
+		// called on every round of the optimization
+		if (running != null) running.check();
+
 		return CECalculator.updateMatrixWithSequenceConservation(max, ca1, ca2,
 				params);
 	}
 
 	@Override
 	public boolean[][] initializeBreakFlag(boolean[][] breakFlag) {
+		if (running != null) running.check();
+		// the optimizer starts here, so this is the last point before it pays for the trace
+		if (tracePending) {
+			tracePending = false;
+			if (afpChain != null && calculator instanceof TracedCalculator) {
+				TracedCalculator traced = (TracedCalculator) calculator;
+				afpChain.setAlignScore(traced.getBestTraceScore());
+				afpChain.setProbability(traced.getBestTraceZScore());
+				if (!shouldContinue(CeSymmAbortPolicy.Stage.TRACED, afpChain)) throw new TraceRejected();
+			}
+		}
 		int fragmentLength = params.getWinSize();
 		try {
 			if (afpChain != null) {
@@ -200,35 +353,81 @@ public class CeSymm extends AbstractStructureAlignment implements
 
 		this.params = (CESymmParameters) param;
 
+		timedOut = false;
+		running = new CancellationToken(cancellationToken, params.getTimeLimit());
+		try {
+			return runAlignment(ca1, ca2O);
+		} catch (CancellationException e) {
+			// the alignment was left half done, so there is nothing to return
+			timedOut = true;
+			return null;
+		} finally {
+			running = null;
+		}
+	}
+
+	private AFPChain runAlignment(Atom[] ca1, Atom[] ca2O) throws StructureException {
+
+		// forget the result of the last alignment, which may have been left half done
+		afpChain = null;
+
 		this.ca1 = ca1;
 		this.ca2 = ca2O;
 
-		ca2 = StructureTools.duplicateCA2(ca2O);
+		ca2 = sharedState != null ? sharedState.getDuplicated(ca2O) : StructureTools.duplicateCA2(ca2O);
 		rows = ca1.length;
 		cols = ca2.length;
 
-		Matrix origM = null;
+		CeSymmMatrix origM = null;
 
 		AFPChain myAFP = new AFPChain();
 
-		calculator = new CECalculator(params);
+		abortedAt = null;
+		tracePending = true;
+
+		int[] bandOffsets = null;
+		try {
+			bandOffsets = coarseBand(ca1, ca2O, params, running);
+		} catch (StructureException e) {
+			// search at full resolution
+			e.printStackTrace();
+		}
+
+		calculator = newCalculator(bandOffsets, ca2O.length);
 		calculator.addMatrixListener(this);
 
 		int i = 0;
 
-		while ((afpChain == null) && i < params.getMaxNrAlternatives()) {
+		try {
+			while ((afpChain == null) && i < params.getMaxNrAlternatives()) {
+
+				running.check();
+
+				afpChain = myAFP;
+				origM = align(myAFP, ca1, ca2, params, origM, calculator, running);
+				tracePending = false;
+
+				if (abortedAt != null) break;
+				if (i == 0 && !shouldContinue(CeSymmAbortPolicy.Stage.FIRST_ALIGNMENT, myAFP)) break;
+
+				double tmScore2 = SuperpositionCache.getTMScore(myAFP, ca1, ca2);
+				myAFP.setTMScore(tmScore2);
+
+				i++;
+			}
 
-			afpChain = myAFP;
 			if (origM != null) {
-				myAFP.setDistanceMatrix((Matrix) origM.clone());
+				// the calculator is done with its working array, so the masked scores can go back into it
+				afpChain.setDistanceMatrix(new Matrix(origM.copyTo(calculator.getMatMatrix())));
 			}
-			origM = align(myAFP, ca1, ca2, params, origM, calculator, i);
+		} finally {
+			if (origM != null) origM.release();
+			origM = null;
+		}
 
-			double tmScore2 = AFPChainScorer.getTMScore(myAFP, ca1, ca2);
-			myAFP.setTMScore(tmScore2);
+		if (abortedAt != null) return afpChain;
 
-			i++;
-		}
+		running.check();
 
 		try {
 			afpChain = CeCPMain.postProcessAlignment(afpChain, ca1, ca2,
@@ -238,19 +437,25 @@ public class CeSymm extends AbstractStructureAlignment implements
 			return afpChain;
 		}
 
-		if (params.isRefineResult()) {
+		if (!shouldContinue(CeSymmAbortPolicy.Stage.POST_PROCESSED, afpChain)) return afpChain;
+
+		if (params.isRefineResult() && params.getMaxRefinedOrder() >= 2) {
+			// try every order rather than trusting the order detector
+			afpChain = SymmRefiner.refineBestOrder(afpChain, ca1, ca2O,
+					params.getMaxRefinedOrder(), params.getThreads(), running);
+		} else if (params.isRefineResult()) {
 			int order;
 			try {
 				order = orderDetector.calculateOrder(myAFP, ca1);
 				afpChain = SymmRefiner.refineSymmetry(afpChain, ca1, ca2O,
-						order);
+						order, running);
 			} catch (OrderDetectionFailedException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}
 
-		double tmScore2 = AFPChainScorer.getTMScore(afpChain, ca1, ca2);
+		double tmScore2 = SuperpositionCache.getTMScore(afpChain, ca1, ca2);
 		afpChain.setTMScore(tmScore2);
 
 		return afpChain;
@@ -283,6 +488,61 @@ public class CeSymm extends AbstractStructureAlignment implements
 		return version;
 	}
 
+	/**
+	 * Stops the calculator's optimization when the abort policy rejects the trace.
+	 */
+	private static class TraceRejected extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private boolean shouldContinue(CeSymmAbortPolicy.Stage stage, AFPChain afpChain) {
+		if (abortPolicy == null || abortPolicy.shouldContinue(stage, afpChain)) return true;
+		abortedAt = stage;
+		return false;
+	}
+
+	/**
+	 * @param abortPolicy Consulted after each stage of the alignment, or null (the default) to always run to completion
+	 */
+	public void setAbortPolicy(CeSymmAbortPolicy abortPolicy) {
+		this.abortPolicy = abortPolicy;
+	}
+
+	public CeSymmAbortPolicy getAbortPolicy() {
+		return abortPolicy;
+	}
+
+	/**
+	 * @return The stage after which the last alignment was stopped by the {@link #setAbortPolicy(CeSymmAbortPolicy) abort policy}, or null if it ran to completion
+	 */
+	public CeSymmAbortPolicy.Stage getAbortedAt() {
+		return abortedAt;
+	}
+
+	/**
+	 * @param cancellationToken A token that stops the alignment when it fires, for instance from another thread; or null
+	 * @see CESymmParameters#setTimeLimit(long)
+	 */
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	/**
+	 * @return Whether the last alignment was stopped by the {@link #setCancellationToken(CancellationToken) cancellation token}
+	 * or the {@link CESymmParameters#getTimeLimit() time limit}, in which case it returned null
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	void setSharedState(CeSymmSweep.SharedState sharedState) {
+		this.sharedState = sharedState;
+	}
+
 	public OrderDetector getOrderDetector() {
 		return orderDetector;
 	}
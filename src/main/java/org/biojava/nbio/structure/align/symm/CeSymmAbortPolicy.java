@@ -0,0 +1,43 @@
+package org.biojava.nbio.structure.align.symm;
+
+import org.biojava.nbio.structure.align.model.AFPChain;
+
+/**
+ * Decides whether {@link CeSymm} should go on after each stage of an alignment,
+ * so that clearly insignificant results don't pay for the rest of the pipeline.
+ * @author dmyersturnbull
+ */
+public interface CeSymmAbortPolicy {
+
+	/**
+	 * The points at which CeSymm consults the policy.
+	 */
+	public static enum Stage {
+		/**
+		 * After the trace of the first alternative, before it is optimized. Only the
+		 * trace's score (as the align score, lower is better) and z-score (as the probability)
+		 * are set, and the z-score is usually lower than after optimization.
+		 * Skipped if the trace found nothing to optimize.
+		 */
+		TRACED,
+		/**
+		 * After the trace and optimization of the first alternative. The alignment,
+		 * its RMSD and z-score (as the probability) are set, but not its TM-score.
+		 * The alignment isn't post-processed yet, so its residue indices point
+		 * into the duplicated second structure, and are up to twice its length.
+		 */
+		FIRST_ALIGNMENT,
+		/**
+		 * After circular-permutation post-processing, before refinement and the final TM-score.
+		 */
+		POST_PROCESSED
+	}
+
+	/**
+	 * @param stage The stage just finished
+	 * @param afpChain The alignment so far
+	 * @return false to stop and return {@code afpChain} as it is, without the later stages
+	 */
+	boolean shouldContinue(Stage stage, AFPChain afpChain);
+
+}
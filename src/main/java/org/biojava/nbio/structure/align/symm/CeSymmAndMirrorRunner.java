@@ -0,0 +1,136 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.utils.ParallelWorkers;
+
+/**
+ * Runs the search for rotational symmetry with {@link CeSymm} and the search
+ * for mirror symmetry with {@link CEMirrorSymm} on two threads.
+ *
+ * This shortens the wait for both results, not their total cost: each search
+ * builds its own fragment matrix and traces it as it would on its own. The
+ * one exception is a mirror search that mirrors the coordinates but not the
+ * sequence, which is not the default: reflecting coordinates doesn't change
+ * any intramolecular distance, so that search reuses the rotational search's
+ * matrix. Unlike {@link CEMirrorSymm}, the atoms passed in are never mirrored.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmAndMirrorRunner {
+
+	private boolean mirrorCoordinates;
+	private boolean mirrorSequence;
+
+	/**
+	 * The alignments of both searches.
+	 */
+	public static class Result {
+
+		private final AFPChain rotational;
+		private final AFPChain mirror;
+
+		public Result(AFPChain rotational, AFPChain mirror) {
+			this.rotational = rotational;
+			this.mirror = mirror;
+		}
+
+		/**
+		 * @return The result of {@link CeSymm}
+		 */
+		public AFPChain getRotational() {
+			return rotational;
+		}
+
+		/**
+		 * @return The result of {@link CEMirrorSymm}
+		 */
+		public AFPChain getMirror() {
+			return mirror;
+		}
+	}
+
+	/**
+	 * Searches for mirror symmetry with both mirrored coordinates and a reversed sequence,
+	 * as {@link CEMirrorSymm#CEMirrorSymm()} does.
+	 */
+	public CeSymmAndMirrorRunner() {
+		this(true, true);
+	}
+
+	/**
+	 * @see CEMirrorSymm#CEMirrorSymm(boolean, boolean)
+	 */
+	public CeSymmAndMirrorRunner(boolean mirrorCoordinates, boolean mirrorSequence) {
+		this.mirrorCoordinates = mirrorCoordinates;
+		this.mirrorSequence = mirrorSequence;
+	}
+
+	/**
+	 * Aligns {@code ca1} to {@code ca2} both ways.
+	 * @param ca1 The first protein
+	 * @param ca2 The second protein, typically a clone of the first protein; it is not modified
+	 * @param params The parameters of both searches
+	 */
+	public Result align(final Atom[] ca1, final Atom[] ca2, final CESymmParameters params) throws StructureException {
+
+		final CeSymm rotational = new CeSymm();
+		final CEMirrorSymm mirror = new CEMirrorSymm(mirrorCoordinates, mirrorSequence);
+		if (!mirrorSequence) {
+			// the same distances, so the same fragment matrix
+			CeSymmSweep.SharedState shared = new CeSymmSweep.SharedState(ca2);
+			rotational.setSharedState(shared);
+			mirror.setSharedState(shared);
+		}
+		// CEMirrorSymm mirrors its input in place
+		final Atom[] ca2m = mirrorCoordinates ? StructureTools.cloneCAArray(ca2) : ca2;
+
+		final AFPChain[] results = new AFPChain[2];
+		final StructureException[] failures = new StructureException[2];
+		final AtomicInteger next = new AtomicInteger();
+
+		ParallelWorkers.run(2, new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < 2) {
+					try {
+						if (i == 0) {
+							results[0] = rotational.align(ca1, ca2, params);
+						} else {
+							results[1] = mirror.align(ca1, ca2m, params);
+						}
+					} catch (StructureException e) {
+						failures[i] = e;
+					}
+				}
+			}
+		});
+
+		for (StructureException e : failures) {
+			if (e != null) throw e;
+		}
+		return new Result(results[0], results[1]);
+	}
+
+	public boolean isMirrorCoordinates() {
+		return mirrorCoordinates;
+	}
+
+	public void setMirrorCoordinates(boolean mirrorCoordinates) {
+		this.mirrorCoordinates = mirrorCoordinates;
+	}
+
+	public boolean isMirrorSequence() {
+		return mirrorSequence;
+	}
+
+	public void setMirrorSequence(boolean mirrorSequence) {
+		this.mirrorSequence = mirrorSequence;
+	}
+
+}
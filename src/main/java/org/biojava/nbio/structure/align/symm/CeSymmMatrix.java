@@ -0,0 +1,322 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.biojava.nbio.structure.jama.Matrix;
+import org.biojava.nbio.structure.utils.MappedDoubleArray;
+
+/**
+ * CeSymm's side copy of the fragment similarity matrix of a self-alignment,
+ * which it keeps between alternative alignments, stored as a single flat array
+ * with row-stride access.
+ *
+ * The unmasked scores are stored once. Blanking out the main diagonal and
+ * previous alignments is recorded in a bit mask laid over them, so each
+ * alternative alignment can be run on the masked values without cloning the
+ * whole matrix. Blanked cells read as their score plus {@link #BLANK_PENALTY},
+ * which is far above any RMSD threshold.
+ *
+ * A {@link #forSelfAlignment(double[][], int) self-alignment} matrix stores
+ * only the first n of its 2n columns. That halves the side copy only. The
+ * calculator still aligns against the duplicated structure, building and
+ * tracing its own n&times;2n fragment matrix, n&times;2n break flags and
+ * 2n&times;2n distance matrix, and this copy is taken from that fragment
+ * matrix. So the peak memory of an alignment and the time to build its
+ * matrix don't change.
+ *
+ * The scores can optionally be kept in a memory-mapped scratch file, which
+ * moves them off the heap. Only this copy moves: the calculator still traces
+ * on its own matrix and distance matrices on the heap, so this doesn't let
+ * CE-Symm align a structure whose calculator doesn't fit on the heap. A matrix
+ * backed by a scratch file should be {@link #release() released} when done.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmMatrix {
+
+	/**
+	 * Added to the score of blanked cells.
+	 * This is the penalty {@code SymmetryTools.blankOutPreviousAlignment} applies.
+	 */
+	public static final double BLANK_PENALTY = -(double) Integer.MIN_VALUE;
+
+	/**
+	 * The score of cells where a fragment would run off the end of a structure.
+	 */
+	public static final double INVALID = -1.0;
+
+	private final int rows;
+	private final int cols;
+	// number of columns actually stored; equal to cols unless columns repeat
+	private final int period;
+	// columns from this one on hold INVALID
+	private final int validCols;
+	private final Scores scores;
+	private final BitSet blanked;
+
+	/**
+	 * Where the unmasked scores are kept, indexed row-major with stride {@code period}.
+	 */
+	private interface Scores {
+		double get(int index);
+		void set(int index, double value);
+		void get(int index, double[] target, int start, int length);
+		void set(int index, double[] source, int length);
+		void release();
+	}
+
+	private static class DoubleScores implements Scores {
+		private final double[] values;
+		DoubleScores(int size) {
+			values = new double[size];
+		}
+		@Override
+		public double get(int index) {
+			return values[index];
+		}
+		@Override
+		public void set(int index, double value) {
+			values[index] = value;
+		}
+		@Override
+		public void get(int index, double[] target, int start, int length) {
+			System.arraycopy(values, index, target, start, length);
+		}
+		@Override
+		public void set(int index, double[] source, int length) {
+			System.arraycopy(source, 0, values, index, length);
+		}
+		@Override
+		public void release() {
+		}
+	}
+
+	private static class MappedScores implements Scores {
+		private final MappedDoubleArray values;
+		MappedScores(MappedDoubleArray values) {
+			this.values = values;
+		}
+		@Override
+		public double get(int index) {
+			return values.get(index);
+		}
+		@Override
+		public void set(int index, double value) {
+			values.set(index, value);
+		}
+		@Override
+		public void get(int index, double[] target, int start, int length) {
+			values.get(index, target, start, length);
+		}
+		@Override
+		public void set(int index, double[] source, int length) {
+			values.set(index, source, 0, length);
+		}
+		@Override
+		public void release() {
+			try {
+				values.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates a matrix holding a copy of {@code mat}.
+	 * @param mat A rectangular array, such as {@code CECalculator.getMatMatrix()}
+	 */
+	public CeSymmMatrix(double[][] mat) {
+		this(mat.length, mat.length == 0 ? 0 : mat[0].length);
+		for (int i = 0; i < rows; i++) {
+			setRow(i, mat[i], cols);
+		}
+	}
+
+	public CeSymmMatrix(int rows, int cols) {
+		this(rows, cols, cols, cols, new DoubleScores(rows * cols));
+	}
+
+	private CeSymmMatrix(int rows, int cols, int period, int validCols, Scores scores) {
+		this.rows = rows;
+		this.cols = cols;
+		this.period = period;
+		this.validCols = validCols;
+		this.scores = scores;
+		blanked = new BitSet(rows * cols);
+	}
+
+	/**
+	 * Creates a matrix for the alignment of a structure against a duplicated
+	 * copy of a structure of length n, as built by
+	 * {@code StructureTools.duplicateCA2}. Column j+n of such a matrix
+	 * is the same fragment as column j, so only the first n columns of
+	 * {@code mat} are stored. The last {@code winSize-1} columns, whose fragments
+	 * would run past the end of the duplicate, read as {@link #INVALID}.
+	 * The mask still covers all 2n columns. {@code mat} itself is left as it is.
+	 * @param mat An array with an even number of columns
+	 * @param winSize The fragment length used to build {@code mat}
+	 */
+	public static CeSymmMatrix forSelfAlignment(double[][] mat, int winSize) {
+		int period = checkSelfAlignment(mat);
+		return forSelfAlignment(mat, winSize, new DoubleScores(mat.length * period));
+	}
+
+	/**
+	 * Same as {@link #forSelfAlignment(double[][], int)}, keeping the scores in a
+	 * memory-mapped scratch file rather than on the heap.
+	 * @param scratchDirectory The directory for the scratch file, or null for the system default
+	 * @throws IOException If the scratch file can't be created
+	 */
+	public static CeSymmMatrix forSelfAlignment(double[][] mat, int winSize, File scratchDirectory) throws IOException {
+		int period = checkSelfAlignment(mat);
+		MappedDoubleArray values = new MappedDoubleArray((long) mat.length * period, scratchDirectory);
+		return forSelfAlignment(mat, winSize, new MappedScores(values));
+	}
+
+	private static int checkSelfAlignment(double[][] mat) {
+		int cols = mat.length == 0 ? 0 : mat[0].length;
+		if (cols % 2 != 0) {
+			throw new IllegalArgumentException("A self-alignment matrix needs an even number of columns, but got " + cols);
+		}
+		return cols / 2;
+	}
+
+	private static CeSymmMatrix forSelfAlignment(double[][] mat, int winSize, Scores scores) {
+		int rows = mat.length;
+		int cols = rows == 0 ? 0 : mat[0].length;
+		int period = cols / 2;
+		int validCols = Math.max(period, Math.min(cols, cols - winSize + 1));
+		CeSymmMatrix m = new CeSymmMatrix(rows, cols, period, validCols, scores);
+		for (int i = 0; i < rows; i++) {
+			m.setRow(i, mat[i], period);
+		}
+		return m;
+	}
+
+	/**
+	 * @return Whether the scores are kept in a scratch file
+	 */
+	public boolean isMapped() {
+		return scores instanceof MappedScores;
+	}
+
+	/**
+	 * Frees the scratch file of a {@link #isMapped() mapped} matrix. The matrix can't be used afterward.
+	 */
+	public void release() {
+		scores.release();
+	}
+
+	/**
+	 * @return Whether the second half of the columns is addressed modulo the first
+	 */
+	public boolean isSelfAlignment() {
+		return period != cols;
+	}
+
+	public int getRowDimension() {
+		return rows;
+	}
+
+	public int getColumnDimension() {
+		return cols;
+	}
+
+	/**
+	 * @return The score at (i,j), including the penalty if it has been blanked out
+	 */
+	public double get(int i, int j) {
+		double value = getUnmasked(i, j);
+		if (blanked.get(i * cols + j)) return value + BLANK_PENALTY;
+		return value;
+	}
+
+	/**
+	 * @return The score at (i,j), ignoring any mask
+	 */
+	public double getUnmasked(int i, int j) {
+		if (j >= validCols) return INVALID;
+		return scores.get(i * period + (j < period ? j : j - period));
+	}
+
+	/**
+	 * Sets the score at (i,j). For a {@link #isSelfAlignment() self-alignment},
+	 * this also sets the score of the column's copy in the other half.
+	 */
+	public void set(int i, int j, double value) {
+		if (j >= validCols) throw new IllegalArgumentException("Column " + j + " can only hold INVALID");
+		scores.set(i * period + (j < period ? j : j - period), value);
+	}
+
+	public boolean isBlanked(int i, int j) {
+		return blanked.get(i * cols + j);
+	}
+
+	/**
+	 * Masks out cell (i,j).
+	 */
+	public void blank(int i, int j) {
+		blanked.set(i * cols + j);
+	}
+
+	/**
+	 * Masks out cells (i,start) through (i,end-1).
+	 */
+	public void blankRow(int i, int start, int end) {
+		if (start >= end) return;
+		blanked.set(i * cols + start, i * cols + end);
+	}
+
+	/**
+	 * Removes all masking.
+	 */
+	public void clearMask() {
+		blanked.clear();
+	}
+
+	/**
+	 * Writes the masked scores into {@code target}, which is reused if it has
+	 * the right dimensions and otherwise replaced by a new array.
+	 * @param target A working array, such as the one the calculator last used. May be null.
+	 * @return The array the scores were written to
+	 */
+	public double[][] copyTo(double[][] target) {
+		if (target == null || target.length != rows || (rows > 0 && (target[0] == null || target[0].length != cols))) {
+			target = new double[rows][cols];
+		}
+		for (int i = 0; i < rows; i++) {
+			double[] row = target[i];
+			getRow(i, row, 0, period);
+			if (validCols > period) {
+				getRow(i, row, period, validCols - period);
+			}
+			Arrays.fill(row, validCols, cols, INVALID);
+			int offset = i * cols;
+			for (int index = blanked.nextSetBit(offset); index >= 0 && index < offset + cols; index = blanked.nextSetBit(index + 1)) {
+				row[index - offset] += BLANK_PENALTY;
+			}
+		}
+		return target;
+	}
+
+	private void setRow(int i, double[] source, int length) {
+		scores.set(i * period, source, length);
+	}
+
+	// copies the first length stored scores of row i to target[start...]
+	private void getRow(int i, double[] target, int start, int length) {
+		scores.get(i * period, target, start, length);
+	}
+
+	/**
+	 * @return A new {@link Matrix} of the masked scores
+	 */
+	public Matrix toMatrix() {
+		return new Matrix(copyTo(null));
+	}
+
+}
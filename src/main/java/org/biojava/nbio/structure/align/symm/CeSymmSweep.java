@@ -0,0 +1,210 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.ce.CECalculator;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.utils.CancellationToken;
+import org.biojava.nbio.structure.utils.ParallelWorkers;
+
+/**
+ * Aligns one structure to itself with CE-Symm under many sets of parameters,
+ * for instance to calibrate {@code winSize}, {@code rmsdThr}, {@code maxGapSize}
+ * and {@code maxNrAlternatives}.
+ *
+ * The parts of the alignment that don't depend on the parameters are computed
+ * once per sweep: the duplicated second copy of the structure and its clones,
+ * and the fragment similarity matrix for each distinct {@code winSize}, which is
+ * the most expensive step of CE. Only the tracing, optimization and
+ * post-processing are repeated for each set of parameters, and those run in
+ * parallel. Sets of parameters with several {@link CESymmParameters#getThreads() threads}
+ * or a {@link CESymmParameters#getCoarseStep() coarse search} are traced by
+ * {@link CESymmCalculator}, and compute their own matrix. Each result is the same as {@link CeSymm#align(Atom[], Atom[], Object)}
+ * would give for its parameters.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmSweep {
+
+	private int threads;
+
+	/**
+	 * Creates a sweep that runs one set of parameters per processor at a time.
+	 */
+	public CeSymmSweep() {
+		this(0);
+	}
+
+	/**
+	 * @param threads The number of sets of parameters to run at a time; 0 for one per processor
+	 */
+	public CeSymmSweep(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Aligns {@code ca} to itself once for each of {@code paramSets}.
+	 * @param ca The structure; its atoms are not moved
+	 * @param paramSets The sets of parameters, which must not be modified during the sweep
+	 * @return The alignment for each set of parameters, in the same order; an entry is null if CE-Symm returned null
+	 * @throws StructureException If any of the alignments failed
+	 */
+	public List<AFPChain> align(Atom[] ca, final List<CESymmParameters> paramSets) throws StructureException {
+
+		final Atom[] ca1 = ca;
+		final Atom[] ca2O = StructureTools.cloneCAArray(ca);
+		final SharedState shared = new SharedState(ca2O);
+
+		final AFPChain[] results = new AFPChain[paramSets.size()];
+		final AtomicInteger next = new AtomicInteger();
+
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < results.length) {
+					CeSymm ceSymm = new CeSymm();
+					ceSymm.setSharedState(shared);
+					try {
+						results[i] = ceSymm.align(ca1, ca2O, paramSets.get(i));
+					} catch (StructureException e) {
+						throw new SweepFailure(paramSets.get(i), e);
+					}
+				}
+			}
+		};
+
+		try {
+			ParallelWorkers.run(Math.min(paramSets.size(), resolveThreads()), worker);
+		} catch (SweepFailure e) {
+			throw e.getCause();
+		}
+
+		List<AFPChain> list = new ArrayList<AFPChain>(results.length);
+		for (AFPChain afpChain : results) {
+			list.add(afpChain);
+		}
+		return list;
+	}
+
+	private int resolveThreads() {
+		return threads < 1 ? ParallelWorkers.getDefaultThreads() : threads;
+	}
+
+	/**
+	 * Carries a {@link StructureException} out of a worker.
+	 */
+	private static class SweepFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		SweepFailure(CESymmParameters params, StructureException cause) {
+			super("Could not align with " + params, cause);
+		}
+		@Override
+		public synchronized StructureException getCause() {
+			return (StructureException) super.getCause();
+		}
+	}
+
+	/**
+	 * The parameter-independent parts of a self-alignment, shared by the
+	 * {@link CeSymm} instances of a sweep.
+	 */
+	static class SharedState {
+
+		private final Atom[] ca2O;
+		private final Atom[] ca2;
+		private final Map<Integer, FragmentMatrix> matrices = new HashMap<Integer, FragmentMatrix>();
+
+		SharedState(Atom[] ca2O) {
+			this.ca2O = ca2O;
+			ca2 = StructureTools.duplicateCA2(ca2O);
+		}
+
+		/**
+		 * @return The duplicated {@code ca2O}, which must not be modified
+		 */
+		Atom[] getDuplicated(Atom[] ca2O) {
+			return ca2O == this.ca2O ? ca2 : StructureTools.duplicateCA2(ca2O);
+		}
+
+		/**
+		 * @return A calculator that takes the fragment matrix for its {@code winSize} from this state, computing it the first time
+		 */
+		CECalculator newCalculator(CESymmParameters params, CancellationToken cancellation) {
+			return new SharingCalculator(params, cancellation, getFragmentMatrix(params.getWinSize()));
+		}
+
+		private synchronized FragmentMatrix getFragmentMatrix(int winSize) {
+			FragmentMatrix matrix = matrices.get(winSize);
+			if (matrix == null) {
+				matrix = new FragmentMatrix();
+				matrices.put(winSize, matrix);
+			}
+			return matrix;
+		}
+	}
+
+	/**
+	 * A calculator that reads its fragment matrix from a {@link FragmentMatrix}.
+	 */
+	private static class SharingCalculator extends CancellableCalculator {
+
+		private final FragmentMatrix matrix;
+
+		SharingCalculator(CESymmParameters params, CancellationToken cancellation, FragmentMatrix matrix) {
+			super(params, cancellation);
+			this.matrix = matrix;
+		}
+
+		@Override
+		public double[][] initSumOfDistances(int nse1, int nse2, int winSize, int winSizeComb1,
+				Atom[] ca1, Atom[] ca2) {
+			return matrix.get(this, nse1, nse2, winSize, winSizeComb1, ca1, ca2);
+		}
+
+		private double[][] computeSumOfDistances(int nse1, int nse2, int winSize, int winSizeComb1,
+				Atom[] ca1, Atom[] ca2) {
+			return super.initSumOfDistances(nse1, nse2, winSize, winSizeComb1, ca1, ca2);
+		}
+	}
+
+	/**
+	 * The fragment similarity matrix for one {@code winSize}.
+	 * Every calculator gets its own copy, since CE modifies it.
+	 */
+	private static class FragmentMatrix {
+
+		private double[][] mat = null;
+
+		synchronized double[][] get(SharingCalculator calculator, int nse1, int nse2, int winSize, int winSizeComb1,
+				Atom[] ca1, Atom[] ca2) {
+			if (mat == null) {
+				mat = calculator.computeSumOfDistances(nse1, nse2, winSize, winSizeComb1, ca1, ca2);
+			} else if (mat.length != nse1 || mat.length > 0 && mat[0].length != nse2) {
+				// not the structure of the sweep
+				return calculator.computeSumOfDistances(nse1, nse2, winSize, winSizeComb1, ca1, ca2);
+			}
+			double[][] copy = new double[mat.length][];
+			for (int i = 0; i < mat.length; i++) {
+				copy[i] = mat[i].clone();
+			}
+			return copy;
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * Working arrays for CE-Symm alignments, kept per thread and reused from one
+ * alignment to the next.
+ *
+ * Each buffer grows to the largest domain its thread has aligned, and is
+ * cleared before it is handed out again, so borrowers see the same zeroed
+ * arrays a fresh allocation would give them. Arrays borrowed by an alignment
+ * are only valid until the next alignment on the same thread.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmWorkspace {
+
+	private static final ThreadLocal<CeSymmWorkspace> workspaces = new ThreadLocal<CeSymmWorkspace>() {
+		@Override
+		protected CeSymmWorkspace initialValue() {
+			return new CeSymmWorkspace();
+		}
+	};
+
+	/**
+	 * @return The workspace of the calling thread
+	 */
+	public static CeSymmWorkspace get() {
+		return workspaces.get();
+	}
+
+	/**
+	 * The buffers used to extend a single trace.
+	 */
+	static class TraceBuffers {
+		int[] trace1 = new int[0];
+		int[] trace2 = new int[0];
+		int[] traceIndex = new int[0];
+		int[] traceIterLevel = new int[0];
+		double[][] traceScore = new double[0][0];
+
+		private void prepare(int traceMaxSize, int iterDepth) {
+			trace1 = clear(trace1, traceMaxSize);
+			trace2 = clear(trace2, traceMaxSize);
+			traceIndex = clear(traceIndex, traceMaxSize);
+			traceIterLevel = clear(traceIterLevel, traceMaxSize);
+			traceScore = clear(traceScore, traceMaxSize, iterDepth);
+		}
+	}
+
+	private final TraceBuffers traceBuffers = new TraceBuffers();
+	// the calling thread also runs a worker of a parallel scan, so workers get their own
+	private final TraceBuffers scanBuffers = new TraceBuffers();
+	private int[] bestTrace1 = new int[0];
+	private int[] bestTrace2 = new int[0];
+	private int[][] bestTraces1 = new int[0][0];
+	private int[][] bestTraces2 = new int[0][0];
+
+	private WeakReference<Atom[]> cloneSource = null;
+	private Atom[] clones = null;
+
+	/**
+	 * @return Cleared trace buffers for {@code CESymmCalculator.traceFragmentMatrix}
+	 */
+	TraceBuffers getTraceBuffers(int traceMaxSize, int iterDepth) {
+		traceBuffers.prepare(traceMaxSize, iterDepth);
+		return traceBuffers;
+	}
+
+	/**
+	 * @return Cleared trace buffers for a worker of a parallel seed scan
+	 */
+	TraceBuffers getScanBuffers(int traceMaxSize, int iterDepth) {
+		scanBuffers.prepare(traceMaxSize, iterDepth);
+		return scanBuffers;
+	}
+
+	int[] getBestTrace1(int traceMaxSize) {
+		return bestTrace1 = clear(bestTrace1, traceMaxSize);
+	}
+
+	int[] getBestTrace2(int traceMaxSize) {
+		return bestTrace2 = clear(bestTrace2, traceMaxSize);
+	}
+
+	/**
+	 * @return An array of exactly {@code count} cleared traces of at least {@code traceMaxSize}
+	 */
+	int[][] getBestTraces1(int count, int traceMaxSize) {
+		return bestTraces1 = clearTraces(bestTraces1, count, traceMaxSize);
+	}
+
+	int[][] getBestTraces2(int count, int traceMaxSize) {
+		return bestTraces2 = clearTraces(bestTraces2, count, traceMaxSize);
+	}
+
+	/**
+	 * @return The atoms last cloned from {@code source} on this thread, or null
+	 */
+	public Atom[] getClones(Atom[] source) {
+		if (cloneSource == null || cloneSource.get() != source) return null;
+		return clones;
+	}
+
+	/**
+	 * Remembers {@code clones} as the clones of {@code source}, replacing any others.
+	 */
+	public void setClones(Atom[] source, Atom[] clones) {
+		cloneSource = new WeakReference<Atom[]>(source);
+		this.clones = clones;
+	}
+
+	/**
+	 * Drops all buffers of this thread's workspace, for instance after aligning an unusually large domain.
+	 */
+	public void release() {
+		workspaces.remove();
+	}
+
+	private static int[] clear(int[] array, int length) {
+		if (array.length < length) return new int[length];
+		Arrays.fill(array, 0, length, 0);
+		return array;
+	}
+
+	private static double[][] clear(double[][] array, int rows, int cols) {
+		if (array.length < rows || (rows > 0 && array[0].length < cols)) {
+			int oldCols = array.length == 0 ? 0 : array[0].length;
+			return new double[Math.max(rows, array.length)][Math.max(cols, oldCols)];
+		}
+		for (int i = 0; i < rows; i++) {
+			Arrays.fill(array[i], 0, cols, 0.0);
+		}
+		return array;
+	}
+
+	private static int[][] clearTraces(int[][] array, int count, int length) {
+		if (array.length != count || (count > 0 && array[0].length < length)) {
+			return new int[count][length];
+		}
+		for (int[] trace : array) {
+			Arrays.fill(trace, 0, length, 0);
+		}
+		return array;
+	}
+
+}
@@ -4,14 +4,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.ResidueNumber;
@@ -21,10 +17,13 @@ import org.biojava.nbio.structure.align.StructureAlignmentFactory;
 import org.biojava.nbio.structure.align.gui.StructureAlignmentDisplay;
 import org.biojava.nbio.structure.align.gui.jmol.StructureAlignmentJmol;
 import org.biojava.nbio.structure.align.model.AFPChain;
-import org.biojava.nbio.structure.align.util.AlignmentTools;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.align.symm.order.SequenceFunctionOrderDetector;
+import org.biojava.nbio.structure.utils.AlignmentFunction;
+import org.biojava.nbio.structure.utils.CancellationToken;
+import org.biojava.nbio.structure.utils.ParallelWorkers;
+import org.biojava.nbio.structure.utils.SuperpositionCache;
 
 /**
  * A utility class for refining symmetric alignments
@@ -44,16 +43,83 @@ public class SymmRefiner {
 	 * @throws StructureException
 	 */
 	public static AFPChain refineSymmetry(AFPChain afpChain, Atom[] ca1, Atom[] ca2, int k) throws StructureException {
+		return refineSymmetry(afpChain, ca1, ca2, k, null);
+	}
+
+	/**
+	 * Same as {@link #refineSymmetry(AFPChain, Atom[], Atom[], int)}, but stops
+	 * with a {@link java.util.concurrent.CancellationException} once {@code cancellation} fires.
+	 * @param cancellation A token checked on each step of the refinement, or null
+	 */
+	public static AFPChain refineSymmetry(AFPChain afpChain, Atom[] ca1, Atom[] ca2, int k,
+			CancellationToken cancellation) throws StructureException {
 		// The current alignment
-		Map<Integer, Integer> alignment = AlignmentTools.alignmentAsMap(afpChain);
+		AlignmentFunction alignment = AlignmentFunction.fromAFPChain(afpChain);
 
 		// Do the alignment
-		Map<Integer, Integer> refined = refineSymmetry(alignment, k);
+		refineSymmetry(alignment, k, cancellation);
 
-		AFPChain refinedAFP = AlignmentTools.replaceOptAln(afpChain, ca1, ca2, refined);
+		AFPChain refinedAFP = alignment.toAFPChain(afpChain, ca1, ca2);
 		return refinedAFP;
 	}
 
+	/**
+	 * Refines a CE-Symm alignment for every order from 2 to {@code maxOrder},
+	 * and keeps the refined alignment with the highest TM-score.
+	 *
+	 * Unlike refining with the order guessed by an
+	 * {@link org.biojava.nbio.structure.align.symm.order.OrderDetector OrderDetector},
+	 * a wrong guess can't spoil the refinement. The orders are refined
+	 * concurrently, each on its own copy of the alignment. On a tie, the
+	 * lower order wins.
+	 * @param maxOrder The highest order to try
+	 * @param threads The number of orders to refine at a time, including on the calling thread; 0 for one per processor
+	 * @param cancellation A token checked on each step of each refinement, or null
+	 * @return The best refined alignment
+	 * @throws StructureException If no order could be refined
+	 * @throws IllegalArgumentException If {@code maxOrder} is less than 2
+	 */
+	public static AFPChain refineBestOrder(final AFPChain afpChain, final Atom[] ca1, final Atom[] ca2, int maxOrder,
+			int threads, final CancellationToken cancellation) throws StructureException {
+		if (maxOrder < 2) throw new IllegalArgumentException("Can't refine for orders up to " + maxOrder);
+
+		final AlignmentFunction alignment = AlignmentFunction.fromAFPChain(afpChain);
+
+		final int nOrders = maxOrder - 1;
+		final AFPChain[] refined = new AFPChain[nOrders];
+		final double[] tmScores = new double[nOrders];
+		final StructureException[] failures = new StructureException[nOrders];
+		final AtomicInteger next = new AtomicInteger();
+
+		if (threads < 1) threads = ParallelWorkers.getDefaultThreads();
+		ParallelWorkers.run(Math.min(threads, nOrders), new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < nOrders) {
+					try {
+						// replaceOptAln may rotate the atoms of ca2 while superimposing, so every order gets its own
+						Atom[] ca2c = StructureTools.cloneCAArray(ca2);
+						AlignmentFunction copy = alignment.copy();
+						refineSymmetry(copy, i + 2, cancellation);
+						refined[i] = copy.toAFPChain(afpChain, ca1, ca2c);
+						tmScores[i] = SuperpositionCache.getTMScore(refined[i], ca1, ca2c);
+					} catch (StructureException e) {
+						failures[i] = e;
+					}
+				}
+			}
+		});
+
+		int best = -1;
+		for (int i = 0; i < nOrders; i++) {
+			if (refined[i] != null && (best < 0 || tmScores[i] > tmScores[best])) best = i;
+		}
+		// every order failed
+		if (best < 0) throw failures[0];
+		return refined[best];
+	}
+
 	/**
 	 * Refines a CE-Symm alignment so that it is perfectly symmetric.
 	 *
@@ -65,298 +131,571 @@ public class SymmRefiner {
 	 * @throws StructureException
 	 */
 	public static Map<Integer, Integer> refineSymmetry(Map<Integer, Integer> alignment,int k) throws StructureException {
+		return refineSymmetry(alignment, k, null);
+	}
+
+	/**
+	 * Same as {@link #refineSymmetry(Map, int)}, but stops with a
+	 * {@link java.util.concurrent.CancellationException} once {@code cancellation} fires.
+	 * @param cancellation A token checked on each step of the refinement, or null
+	 */
+	public static Map<Integer, Integer> refineSymmetry(Map<Integer, Integer> alignment,int k,
+			CancellationToken cancellation) throws StructureException {
+		if (alignment.isEmpty()) return alignment;
+
+		// The refinement only compares residues, so shift them to start at 0
+		int offset = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+		for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+			offset = Math.min(offset, entry.getKey());
+			end = Math.max(end, entry.getKey());
+			if (entry.getValue() != null) {
+				offset = Math.min(offset, entry.getValue());
+				end = Math.max(end, entry.getValue());
+			}
+		}
 
-		// Store scores
-		Map<Integer, Double> scores = null;
-		scores = initializeScores(alignment,scores, k);
+		AlignmentFunction shifted = new AlignmentFunction(end - offset + 1);
+		for (Map.Entry<Integer, Integer> entry : alignment.entrySet()) {
+			if (entry.getValue() != null) shifted.set(entry.getKey() - offset, entry.getValue() - offset);
+		}
+
+		refineSymmetry(shifted, k, cancellation);
+
+		Iterator<Map.Entry<Integer, Integer>> alignmentIt = alignment.entrySet().iterator();
+		while (alignmentIt.hasNext()) {
+			Map.Entry<Integer, Integer> entry = alignmentIt.next();
+			int res = entry.getKey() - offset;
+			if (shifted.isAligned(res)) {
+				entry.setValue(shifted.get(res) + offset);
+			} else {
+				alignmentIt.remove();
+			}
+		}
+		return alignment;
+	}
+
+	/**
+	 * Refines a CE-Symm alignment so that it is perfectly symmetric.
+	 *
+	 * The resulting alignment will have a one-to-one correspondance between
+	 * aligned residues of each symmetric part.
+	 * @param alignment The input alignment. This will be modified.
+	 * @param k Symmetry order. This can be guessed by {@link CeSymm#getSymmetryOrder(AFPChain)}
+	 * @param cancellation A token checked on each step of the refinement, or null
+	 * @return {@code alignment}, refined
+	 */
+	public static AlignmentFunction refineSymmetry(AlignmentFunction alignment, int k,
+			CancellationToken cancellation) {
 
-		// Store eligible residues
 		// Eligible if:
 		//  1. score(x)>0
 		//  2. f^K-1(x) is defined
 		//	3. score(f^K-1(x))>0
+		//  4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
+		//  5. Not in a loop of length less than k
+		Refinement refinement = new Refinement(alignment, k);
+
+		// Repeatedly close the loop of the eligible residue with the lowest score
+		int bestRes;
+		while ((bestRes = refinement.getBest()) >= 0) {
+			if (cancellation != null) cancellation.check();
+			refinement.closeLoop(bestRes);
+		}
 
-		TreeSet<Integer> forwardLoops = new TreeSet<Integer>();
-		TreeSet<Integer> backwardLoops = new TreeSet<Integer>();
-
+		// Remove remaining edges
+		refinement.removeUnrefined();
 
-		List<Integer> eligible = null;
-		eligible = initializeEligible(alignment,scores,eligible,k,forwardLoops,backwardLoops);
+		return alignment;
+	}
 
-		/* For future heap implementation
-		Comparator<Integer> scoreComparator = new Comparator<Integer>() {
-			@Override public int compare(Integer o1, Integer o2) {
-				if(scores.containsKey(o1)) {
-					if(scores.containsKey(o2)) {
-						// If both have defined scores, compare the scores
-						return scores.get(o1).compareTo(scores.get(o2));
-					} else {
-						// o2 has infinite score, so o1 < o2
-						return -1;
-					}
-				} else {
-					//o1 has infinite score
-					if(scores.containsKey(o2)) {
-						// o1 > o2
-						return 1;
-					} else {
-						//both undefined
-						return 0;
-					}
-				}
+	/**
+	 * The state of {@link SymmRefiner#refineSymmetry(AlignmentFunction, int, CancellationToken)}.
+	 *
+	 * Eligible residues are kept in a heap ordered by score, then by residue.
+	 * Closing a loop at residue r changes only f(r), so scores are only
+	 * recomputed for residues that reach r within k-1 steps, and eligibility
+	 * for those that reach r within 2(k-1) steps. The exception is the
+	 * loop-crossing condition, which is rechecked for every residue whose
+	 * f^K-1 lies next to a newly closed forward loop.
+	 * Loops, once closed, never change, since f only changes for residues
+	 * with a positive score.
+	 *
+	 * Everything is indexed by residue, and sets of residues are linked lists
+	 * through arrays, so a refinement doesn't box or allocate per step.
+	 */
+	private static class Refinement {
+
+		private static final int NONE = AlignmentFunction.UNALIGNED;
+
+		private final AlignmentFunction alignment;
+		private final int k;
+		private final int minPre;
+		private final int maxPre;
+
+		// f(x); the residues with f(x) != NONE never change
+		private final int[] f;
+		private final double[] scores;
+		private final boolean[] eligible;
+		// the residues y with f(y) == x, linked from predHead[x] through predNext
+		private final int[] predHead;
+		private final int[] predNext;
+		private final int[] predPrev;
+		// f^K-1(x) of eligible residues
+		private final int[] sources;
+		// eligible residues y with f^K-1(y) == x < y, linked from sourceHead[x] through sourceNext
+		private final int[] sourceHead;
+		private final int[] sourceNext;
+		private final int[] sourcePrev;
+		private final ResidueSet hasSources;
+		private final ResidueSet forwardLoops;
+		private final Heap heap;
+
+		// buffers, reused by every step
+		private final int[] found;
+		private final int[] seen;
+		private int visit = 0;
+		private final int[] newLoops;
+		private int nNewLoops;
+		private final int[] affected;
+
+		Refinement(AlignmentFunction alignment, int k) {
+			this.alignment = alignment;
+			this.k = k;
+			int n = alignment.length();
+			f = new int[n];
+			scores = new double[n];
+			eligible = new boolean[n];
+			predHead = newFilled(n);
+			predNext = newFilled(n);
+			predPrev = newFilled(n);
+			sources = newFilled(n);
+			sourceHead = newFilled(n);
+			sourceNext = newFilled(n);
+			sourcePrev = newFilled(n);
+			hasSources = new ResidueSet(n);
+			forwardLoops = new ResidueSet(n);
+			heap = new Heap(n);
+			found = new int[n];
+			seen = new int[n];
+			newLoops = new int[n];
+			affected = new int[n];
+
+			int minPre = Integer.MAX_VALUE;
+			int maxPre = Integer.MIN_VALUE;
+			for (int x = 0; x < n; x++) {
+				f[x] = alignment.get(x);
+				if (f[x] == NONE) continue;
+				if (x > maxPre) maxPre = x;
+				if (x < minPre) minPre = x;
 			}
-		};
-		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(alignment.size(), scoreComparator);
-		 */
-		//int step = 0;
-		while (!eligible.isEmpty()) {
-			//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
-
-			// Find eligible residue with lowest scores
-			Integer bestRes = null;
-			double bestResScore = Double.POSITIVE_INFINITY;
-			for(Integer res : eligible) {
-				Double score = scores.get(res);
-				if (score != null && score < bestResScore) {
-					bestResScore = score;
-					bestRes = res;
-				}
+			// the aligned residues never change
+			this.minPre = minPre;
+			this.maxPre = maxPre;
+
+			for (int x = 0; x < n; x++) {
+				if (f[x] == NONE) continue;
+				link(x, f[x]);
+				scores[x] = score(x);
+				eligible[x] = true;
 			}
 
-			// Find f^k-1(bestRes)
-			Integer resK1 = bestRes;
-			for (int i = 0; i < k - 1; i++) {
-				assert (resK1 != null);
-				resK1 = alignment.get(resK1);
-
-				// Update scores
-				scores.put(resK1, 0.0);
+			nNewLoops = 0;
+			for (int x = 0; x < n; x++) {
+				update(x);
 			}
-			scores.put(bestRes, 0.0);
-
-			// Modify alignment
-			alignment.put(resK1, bestRes);
-
-			scores = initializeScores(alignment, scores, k);
-
-			Map<Integer, Double> virginScores = initializeScores(alignment, null, k);
-			if (scores.size() != virginScores.size()) {
-				System.out.println("Size missmatch");
-			} else {
-				for (Integer key : scores.keySet()) {
-					if (!virginScores.containsKey(key) || !scores.get(key).equals(virginScores.get(key))) {
-						System.out.format("Mismatch %d -> %f/%f%n", key, scores.get(key), virginScores.get(key));
-					}
-				}
+			for (int x = 0; x < n; x++) {
+				checkCrossing(x);
+				if (eligible[x]) heap.put(x);
 			}
+		}
 
-			// Update eligible
-			// TODO only update residues which could become ineligible
-			eligible = initializeEligible(alignment, scores, eligible, k, forwardLoops, backwardLoops);
+		private static int[] newFilled(int n) {
+			int[] array = new int[n];
+			Arrays.fill(array, NONE);
+			return array;
+		}
 
-			// System.out.format("Modifying %d -> %d. %d now eligible.%n", resK1,bestRes,eligible.size());
+		/**
+		 * @return The eligible residue with the lowest score, or -1 if none is left
+		 */
+		int getBest() {
+			return heap.peek();
 		}
-		//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
 
-		// Remove remaining edges
-		Iterator<Integer> alignmentIt = alignment.keySet().iterator();
-		while (alignmentIt.hasNext()) {
-			Integer res = alignmentIt.next();
-			Double score = scores.get(res);
-			if (score == null || score > 0.0) {
-				alignmentIt.remove();
+		/**
+		 * Unaligns the residues that aren't in a loop.
+		 */
+		void removeUnrefined() {
+			for (int x = 0; x < f.length; x++) {
+				if (f[x] != NONE && !(scores[x] <= 0.0)) {
+					alignment.set(x, NONE);
+				}
 			}
 		}
-		//System.out.format("Step %d: %s%n", ++step, AlignmentTools.toConciseAlignmentString(alignment));
-
-		return alignment;
-	}
 
-	/**
-	 * Helper method to initialize eligible residues.
-	 *
-	 * Eligible if:
-	 *  1. score(x)>0
-	 *  2. f^K-1(x) is defined
-	 *  3. score(f^K-1(x))>0
-	 *  4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
-	 * @param alignment The alignment with respect to which to calculate eligibility
-	 * @param scores An up-to-date map from residues to their scores
-	 * @param eligible Starting list of eligible residues. If null will be generated.
-	 * @param k
-	 * @param backwardLoops
-	 * @param forwardLoops
-	 * @return eligible after modification
-	 */
-	private static List<Integer> initializeEligible(Map<Integer, Integer> alignment,
-			Map<Integer, Double> scores, List<Integer> eligible, int k, NavigableSet<Integer> forwardLoops, NavigableSet<Integer> backwardLoops) {
-		// Eligible if:
-		// 1. score(x)>0
-		// 2. f^K-1(x) is defined
-		// 3. score(f^K-1(x))>0
-		// 4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
-		// 5. Not in a loop of length less than k
+		/**
+		 * Sets f(f^K-1(x)) = x for residue x.
+		 */
+		void closeLoop(int bestRes) {
+			int resK1 = image(bestRes, k - 1);
+
+			unlink(resK1, f[resK1]);
+			f[resK1] = bestRes;
+			link(resK1, bestRes);
+			alignment.set(resK1, bestRes);
+
+			// f^k(x) changed only if the first k-1 steps from x pass through resK1,
+			// and f^K-1(x) or its score changed only within 2(k-1) steps
+			int withinK1 = upstream(resK1, k - 1, 2 * (k - 1));
+			int changed = visitedCount;
+
+			for (int pos = 0; pos < withinK1; pos++) {
+				int x = found[pos];
+				double score = score(x);
+				if (score != scores[x]) {
+					scores[x] = score;
+					if (eligible[x]) heap.put(x);
+				}
+			}
 
+			nNewLoops = 0;
+			for (int pos = 0; pos < changed; pos++) {
+				update(found[pos]);
+			}
+			for (int pos = 0; pos < changed; pos++) {
+				checkCrossing(found[pos]);
+			}
 
-		// Assume all residues are eligible to start
-		if(eligible == null) {
-			eligible = new LinkedList<Integer>(alignment.keySet());
+			for (int l = 0; l < nNewLoops; l++) {
+				int loop = newLoops[l];
+				// residues whose neighboring loops are now different
+				int lower = forwardLoops.lower(loop);
+				int higher = forwardLoops.higher(loop);
+				int from = lower == NONE ? 0 : lower;
+				int to = higher == NONE ? f.length : higher;
+				int nAffected = 0;
+				for (int src = hasSources.ceiling(from); src != NONE && src < to; src = hasSources.higher(src)) {
+					for (int x = sourceHead[src]; x != NONE; x = sourceNext[x]) {
+						affected[nAffected++] = x;
+					}
+				}
+				for (int pos = 0; pos < nAffected; pos++) {
+					checkCrossing(affected[pos]);
+				}
+			}
 		}
 
-		// Precalculate f^K-1(x)
-		// Map<Integer, Integer> alignK1 = AlignmentTools.applyAlignment(alignment, k-1);
-		Map<Integer, Integer> alignK1 = applyAlignmentAndCheckCycles(alignment, k - 1, eligible);
-
-		// Remove ineligible residues
-		Iterator<Integer> eligibleIt = eligible.iterator();
-		while(eligibleIt.hasNext()) {
-			Integer res = eligibleIt.next();
+		/**
+		 * Checks conditions 1, 2, 3 and 5 for residue x.
+		 * Residues added to the forward loops are appended to {@code newLoops}.
+		 */
+		private void update(int x) {
+			if (!eligible[x]) return;
+			setSource(x, NONE);
+
+			//  5. Not in a loop of length less than k
+			int post = x;
+			for (int n = 1; n <= k - 1; n++) {
+				post = apply(post);
+				if (post == x) {
+					disqualify(x);
+					return;
+				}
+			}
 
 			//  2. f^K-1(x) is defined
-			if(!alignK1.containsKey(res)) {
-				eligibleIt.remove();
-				continue;
-			}
-			Integer k1 = alignK1.get(res);
-			if(k1 == null) {
-				eligibleIt.remove();
-				continue;
+			int k1 = image(x, k - 1);
+			if (k1 == NONE) {
+				disqualify(x);
+				return;
 			}
 
 			//  1. score(x)>0
-			Double score = scores.get(res);
-			if(score == null || score <= 0.0) {
-				eligibleIt.remove();
-
+			if (!(scores[x] > 0.0)) {
+				disqualify(x);
 				// res is in a loop. Add it to the proper set
-				if(res <= alignment.get(res)) {
+				if (x <= f[x]) {
 					//forward
-					forwardLoops.add(res);
-				} else {
-					//backward
-					backwardLoops.add(res);
+					if (forwardLoops.add(x)) newLoops[nNewLoops++] = x;
 				}
-
-				continue;
+				return;
 			}
+
 			//	3. score(f^K-1(x))>0
-			Double scoreK1 = scores.get(k1);
-			if(scoreK1 == null || scoreK1 <= 0.0) {
-				eligibleIt.remove();
-				continue;
+			if (f[k1] == NONE || !(scores[k1] > 0.0)) {
+				disqualify(x);
+				return;
 			}
-		}
 
+			setSource(x, k1);
+		}
 
-		// Now that loops are up-to-date, check for loop crossings
-		eligibleIt = eligible.iterator();
-		while(eligibleIt.hasNext()) {
-			Integer res = eligibleIt.next();
+		/**
+		 * Checks condition 4 for residue x.
+		 */
+		private void checkCrossing(int x) {
+			if (!eligible[x]) return;
 
 			//4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
 			//Test equivalent: All loop edges should be properly ordered wrt edge f^k-1(x) -> x
-
-			Integer src = alignK1.get(res);
-
-			if( src < res  ) {
+			int src = sources[x];
+			if (src < x) {
 				//forward
 				// get interval [a,b) containing res
-				Integer a = forwardLoops.floor(src);
-				Integer b = forwardLoops.higher(src);
+				int a = forwardLoops.floor(src);
+				int b = forwardLoops.higher(src);
 
 				// Ineligible unless f(a) < res < f(b)
-				if(a != null && alignment.get(a) > res ) {
-					eligibleIt.remove();
-					continue;
-				}
-				if(b != null && alignment.get(b) < res ) {
-					eligibleIt.remove();
-					continue;
+				if ((a != NONE && f[a] > x) || (b != NONE && f[b] < x)) {
+					disqualify(x);
+					setSource(x, NONE);
 				}
 			}
 		}
 
-		return eligible;
-	}
+		private void disqualify(int x) {
+			eligible[x] = false;
+			heap.remove(x);
+		}
+
+		private void setSource(int x, int src) {
+			int old = sources[x];
+			if (old != NONE && old < x) {
+				if (sourcePrev[x] == NONE) sourceHead[old] = sourceNext[x];
+				else sourceNext[sourcePrev[x]] = sourceNext[x];
+				if (sourceNext[x] != NONE) sourcePrev[sourceNext[x]] = sourcePrev[x];
+				if (sourceHead[old] == NONE) hasSources.remove(old);
+			}
+			sources[x] = src;
+			sourceNext[x] = NONE;
+			sourcePrev[x] = NONE;
+			if (src != NONE && src < x) {
+				sourceNext[x] = sourceHead[src];
+				if (sourceHead[src] != NONE) sourcePrev[sourceHead[src]] = x;
+				sourceHead[src] = x;
+				hasSources.add(src);
+			}
+		}
 
+		private void link(int x, int post) {
+			if (post >= f.length) return;
+			predPrev[x] = NONE;
+			predNext[x] = predHead[post];
+			if (predHead[post] != NONE) predPrev[predHead[post]] = x;
+			predHead[post] = x;
+		}
 
-	/**
-	 * Like {@link AlignmentTools#applyAlignment(Map, int)}, returns a map of k applications of alignmentMap. However,
-	 * it also sets loops of size less than k as ineligible.
-	 *
-	 * @param alignmentMap
-	 *            f(x)
-	 * @param k
-	 * @param eligible
-	 *            Eligible residues. Residues from small cycles are removed.
-	 * @return f^k(x)
-	 */
-	private static Map<Integer, Integer> applyAlignmentAndCheckCycles(Map<Integer, Integer> alignmentMap, int k, List<Integer> eligible) {
-
-		// Convert to lists to establish a fixed order (avoid concurrent modification)
-		List<Integer> preimage = new ArrayList<Integer>(alignmentMap.keySet()); // currently unmodified
-		List<Integer> image = new ArrayList<Integer>(preimage);
-
-		for (int n = 1; n <= k; n++) {
-			// apply alignment
-			for (int i = 0; i < image.size(); i++) {
-				final Integer pre = image.get(i);
-				final Integer post = (pre == null ? null : alignmentMap.get(pre));
-				image.set(i, post);
-
-				// Make cycles ineligible
-				if (post != null && post.equals(preimage.get(i))) {
-					eligible.remove(preimage.get(i)); // Could be O(n) with List impl
+		private void unlink(int x, int post) {
+			if (post >= f.length) return;
+			if (predPrev[x] == NONE) predHead[post] = predNext[x];
+			else predNext[predPrev[x]] = predNext[x];
+			if (predNext[x] != NONE) predPrev[predNext[x]] = predPrev[x];
+			predNext[x] = NONE;
+			predPrev[x] = NONE;
+		}
+
+		private int visitedCount;
+
+		/**
+		 * Lists the residues reaching residue x in at most {@code steps} applications of f,
+		 * including x itself, into {@code found}, nearest first. The number found is left in
+		 * {@code visitedCount}.
+		 * @return The number of residues found within {@code firstSteps} applications
+		 */
+		private int upstream(int x, int firstSteps, int steps) {
+			visit++;
+			int nFound = 0;
+			found[nFound++] = x;
+			seen[x] = visit;
+			int withinFirst = nFound;
+			int start = 0;
+			for (int depth = 0; depth < steps; depth++) {
+				int end = nFound;
+				for (int pos = start; pos < end; pos++) {
+					for (int pre = predHead[found[pos]]; pre != NONE; pre = predNext[pre]) {
+						if (seen[pre] != visit) {
+							seen[pre] = visit;
+							found[nFound++] = pre;
+						}
+					}
 				}
+				start = end;
+				if (depth + 1 == firstSteps) withinFirst = nFound;
+			}
+			visitedCount = nFound;
+			return withinFirst;
+		}
+
+		/**
+		 * @return f(res), or NONE if res isn't aligned
+		 */
+		private int apply(int res) {
+			return res == NONE || res >= f.length ? NONE : f[res];
+		}
+
+		/**
+		 * @return f^n(x), or NONE if undefined
+		 */
+		private int image(int x, int n) {
+			int res = x;
+			for (int step = 0; step < n && res != NONE; step++) {
+				res = apply(res);
 			}
+			return res;
+		}
+
+		private double score(int x) {
+			// Use the absolute error score, |x - f^k(x)|
+			return scoreAbsError(x, image(x, k), minPre, maxPre);
 		}
 
-		Map<Integer, Integer> imageMap = new HashMap<Integer, Integer>(alignmentMap.size());
+		/**
+		 * A min-heap of residues, by score and then by residue, that knows where each residue is.
+		 */
+		private class Heap {
+
+			private final int[] residues;
+			private final int[] positions;
+			private int size = 0;
+
+			Heap(int n) {
+				residues = new int[n];
+				positions = newFilled(n);
+			}
+
+			int peek() {
+				return size == 0 ? NONE : residues[0];
+			}
+
+			/**
+			 * Adds residue x, or moves it after its score changed.
+			 */
+			void put(int x) {
+				int pos = positions[x];
+				if (pos == NONE) {
+					pos = size++;
+					place(x, pos);
+				}
+				siftDown(siftUp(pos));
+			}
+
+			void remove(int x) {
+				int pos = positions[x];
+				if (pos == NONE) return;
+				positions[x] = NONE;
+				size--;
+				if (pos == size) return;
+				place(residues[size], pos);
+				siftDown(siftUp(pos));
+			}
+
+			private int siftUp(int pos) {
+				int x = residues[pos];
+				while (pos > 0) {
+					int parent = (pos - 1) / 2;
+					if (!less(x, residues[parent])) break;
+					place(residues[parent], pos);
+					pos = parent;
+				}
+				place(x, pos);
+				return pos;
+			}
+
+			private void siftDown(int pos) {
+				int x = residues[pos];
+				while (true) {
+					int child = 2 * pos + 1;
+					if (child >= size) break;
+					if (child + 1 < size && less(residues[child + 1], residues[child])) child++;
+					if (!less(residues[child], x)) break;
+					place(residues[child], pos);
+					pos = child;
+				}
+				place(x, pos);
+			}
+
+			private void place(int x, int pos) {
+				residues[pos] = x;
+				positions[x] = pos;
+			}
 
-		// now populate with actual values
-		for (int i = 0; i < preimage.size(); i++) {
-			Integer pre = preimage.get(i);
-			Integer postK = image.get(i);
-			imageMap.put(pre, postK);
+			private boolean less(int x, int y) {
+				// the lowest score; on a tie, the lowest residue
+				if (scores[x] != scores[y]) return scores[x] < scores[y];
+				return x < y;
+			}
 		}
-		return imageMap;
 	}
 
 	/**
-	 * Calculates all scores for an alignment
-	 * @param alignment
-	 * @param scores A mapping from residues to scores, which will be updated or
-	 * 	created if null
-	 * @return scores
+	 * A set of residues from 0 to n-1, as bits.
 	 */
-	private static Map<Integer, Double> initializeScores(Map<Integer, Integer> alignment,
-			Map<Integer, Double> scores, int k) {
-		if(scores == null) {
-			scores = new HashMap<Integer, Double>(alignment.size());
-		} else {
-			scores.clear();
+	private static class ResidueSet {
+
+		private static final int NONE = AlignmentFunction.UNALIGNED;
+
+		private final long[] words;
+
+		ResidueSet(int n) {
+			words = new long[(n + 63) >>> 6];
 		}
-		Map<Integer,Integer> alignK = AlignmentTools.applyAlignment(alignment, k);
 
-		// calculate input range
-		int maxPre = Integer.MIN_VALUE;
-		int minPre = Integer.MAX_VALUE;
-		for(Integer pre : alignment.keySet()) {
-			if(pre>maxPre) maxPre = pre;
-			if(pre<minPre) minPre = pre;
+		/**
+		 * @return Whether x wasn't in the set yet
+		 */
+		boolean add(int x) {
+			long bit = 1L << x;
+			boolean added = (words[x >>> 6] & bit) == 0;
+			words[x >>> 6] |= bit;
+			return added;
 		}
 
-		for(Integer pre : alignment.keySet()) {
-			Integer image = alignK.get(pre);
+		void remove(int x) {
+			words[x >>> 6] &= ~(1L << x);
+		}
 
-			// Use the absolute error score, |x - f^k(x)|
-			double score = scoreAbsError(pre,image,minPre,maxPre);
-			scores.put(pre, score);
+		/**
+		 * @return The lowest residue at least x, or NONE
+		 */
+		int ceiling(int x) {
+			if (x < 0) x = 0;
+			int w = x >>> 6;
+			if (w >= words.length) return NONE;
+			long word = words[w] & (-1L << x);
+			while (word == 0) {
+				if (++w == words.length) return NONE;
+				word = words[w];
+			}
+			return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+
+		/**
+		 * @return The highest residue at most x, or NONE
+		 */
+		int floor(int x) {
+			if (x < 0) return NONE;
+			int w = x >>> 6;
+			if (w >= words.length) {
+				w = words.length - 1;
+				x = (w << 6) + 63;
+			}
+			long word = words[w] & (-1L >>> (63 - (x & 63)));
+			while (word == 0) {
+				if (--w < 0) return NONE;
+				word = words[w];
+			}
+			return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
 		}
-		return scores;
-	}
 
+		int higher(int x) {
+			return ceiling(x + 1);
+		}
 
+		int lower(int x) {
+			return floor(x - 1);
+		}
+	}
 
 	/**
 	 * Calculate the score for a residue, specifically the Absolute Error
@@ -364,15 +703,15 @@ public class SymmRefiner {
 	 *
 	 * Also includes a small bias based on residue number, for uniqueness..
 	 * @param pre x
-	 * @param image f^k(x)
+	 * @param image f^k(x), or -1 if it isn't defined
 	 * @param minPre lowest possible residue number
 	 * @param maxPre highest possible residue number
 	 * @return
 	 */
-	private static double scoreAbsError(Integer pre, Integer image,int minPre,int maxPre) {
+	private static double scoreAbsError(int pre, int image,int minPre,int maxPre) {
 		// Use the absolute error score, |x - f^k(x)|
 		double error;
-		if(image == null) {
+		if(image == AlignmentFunction.UNALIGNED) {
 			error = Double.POSITIVE_INFINITY;
 		} else {
 			error = Math.abs(pre - image);
@@ -0,0 +1,22 @@
+package org.biojava.nbio.structure.align.symm;
+
+/**
+ * A calculator that can report its best trace before the trace is optimized,
+ * so that {@link CeSymm} can consult its {@link CeSymmAbortPolicy} at
+ * {@link CeSymmAbortPolicy.Stage#TRACED}.
+ *
+ * @author dmyersturnbull
+ */
+interface TracedCalculator {
+
+	/**
+	 * @return CE's score of the best trace, the mean distance difference between its fragments (lower is better)
+	 */
+	double getBestTraceScore();
+
+	/**
+	 * @return CE's z-score of the best trace, or 0 if the trace found nothing
+	 */
+	double getBestTraceZScore();
+
+}
@@ -27,7 +27,6 @@ import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.StructureAlignment;
 import org.biojava.nbio.structure.align.client.StructureName;
 import org.biojava.nbio.structure.align.model.AFPChain;
-import org.biojava.nbio.structure.align.util.AFPChainScorer;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.jama.Matrix;
@@ -43,6 +42,7 @@ import org.biojava.nbio.structure.align.symm.census2.utils.CensusChecker;
 import org.biojava.nbio.structure.align.symm.order.OrderDetector;
 import org.biojava.nbio.structure.align.symm.order.SequenceFunctionOrderDetector;
 import org.biojava.nbio.structure.align.symm.protodomain.Protodomain;
+import org.biojava.nbio.structure.utils.SuperpositionCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -323,7 +323,7 @@ public class CensusJob implements Callable<Result> {
 		if (afpChain == null) return null;
 		afpChain.setName1(name);
 		afpChain.setName2(name);
-		double realTmScore = AFPChainScorer.getTMScore(afpChain, ca1, ca2);
+		double realTmScore = SuperpositionCache.getTMScore(afpChain, ca1, ca2);
 		afpChain.setTMScore(realTmScore);
 		return afpChain;
 	}
@@ -37,6 +37,22 @@ public class CensusResult implements Serializable {
 
 	private static final long serialVersionUID = 2282745910618366982L;
 
+	/**
+	 * The {@link #getStatus() status} of a domain that a {@code CensusPrescreen} found clearly asymmetric.
+	 */
+	public static final String SKIPPED_BY_PRESCREEN = "skipped-by-prescreen";
+
+	/**
+	 * The {@link #getStatus() status} of a domain on which CE-Symm was stopped early by its abort policy.
+	 * Such a result only has scores, and no alignment or axis.
+	 */
+	public static final String ABORTED_EARLY = "aborted-early";
+
+	/**
+	 * The {@link #getStatus() status} of a domain on which CE-Symm ran out of time or was cancelled.
+	 */
+	public static final String TIMED_OUT = "timed-out";
+
 	private CensusAlignment alignment;
 	private CensusAxis axis;
 	private CensusSymmetryGroup group;
@@ -44,6 +60,7 @@ public class CensusResult implements Serializable {
 	
 	private CensusScoreList scoreList;
 	private String alignedUnit;
+	private String status;
 
 	@Override
 	public boolean equals(Object obj) {
@@ -60,6 +77,9 @@ public class CensusResult implements Serializable {
 		if (alignedUnit == null) {
 			if (other.alignedUnit != null) return false;
 		} else if (!alignedUnit.equals(other.alignedUnit)) return false;
+		if (status == null) {
+			if (other.status != null) return false;
+		} else if (!status.equals(other.status)) return false;
 		if (id == null) {
 			if (other.id != null) return false;
 		} else if (!id.equals(other.id)) return false;
@@ -91,6 +111,13 @@ public class CensusResult implements Serializable {
 		return alignedUnit;
 	}
 
+	/**
+	 * @return Why CE-Symm was not run to completion on this domain, such as {@link #SKIPPED_BY_PRESCREEN}; null if it was
+	 */
+	public String getStatus() {
+		return status;
+	}
+
 	public int getOrder() {
 		if (group == null) return 1;
 		return group.getOrder();
@@ -105,6 +132,7 @@ public class CensusResult implements Serializable {
 		result = prime * result + (group == null ? 0 : group.hashCode());
 		result = prime * result + (alignedUnit == null ? 0 : alignedUnit.hashCode());
 		result = prime * result + (id == null ? 0 : id.hashCode());
+		result = prime * result + (status == null ? 0 : status.hashCode());
 		return result;
 	}
 
@@ -133,10 +161,15 @@ public class CensusResult implements Serializable {
 		this.alignedUnit = alignedUnit;
 	}
 
+	@XmlAttribute
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
 	@Override
 	public String toString() {
 		return "CensusResult [scoreList=" + scoreList + ", alignment=" + alignment + ", axis=" + axis + ", group="
-				+ group + ", alignedUnit=" + alignedUnit + ", id=" + id + "]";
+				+ group + ", alignedUnit=" + alignedUnit + ", id=" + id + ", status=" + status + "]";
 	}
 
 }
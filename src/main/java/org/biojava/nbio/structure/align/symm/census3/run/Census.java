@@ -106,6 +106,8 @@ public class Census {
 	private AlgorithmGiver algorithm = null;
 
 	private OrderDetector orderDetector = new SequenceFunctionOrderDetector();
+
+	private CensusPrescreen prescreen = null;
 	
 	public void setRecordAlignmentMapping(boolean recordAlignmentMapping) {
 		this.recordAlignmentMapping = recordAlignmentMapping;
@@ -119,6 +121,14 @@ public class Census {
 		this.orderDetector = orderDetector;
 	}
 
+	/**
+	 * Skips domains the prescreen finds clearly asymmetric, recording them as {@link CensusResult#SKIPPED_BY_PRESCREEN}.
+	 * @param prescreen A test such as a calibrated {@link ContactMapPrescreen}, or null (the default) to align every domain
+	 */
+	public void setPrescreen(CensusPrescreen prescreen) {
+		this.prescreen = prescreen;
+	}
+
 	public static void buildDefault(File censusFile) {
 		try {
 			int maxThreads = Runtime.getRuntime().availableProcessors() - 1;
@@ -225,6 +235,7 @@ public class Census {
 				calc.setRecordAlignmentMapping(recordAlignmentMapping);
 				calc.setStoreAfpChain(storeAfpChain);
 				calc.setOrderDetector(orderDetector);
+				calc.setPrescreen(prescreen);
 				initializeJob(calc);
 				submittedJobs.add(calc);
 				Future<CensusResult> result = ConcurrencyTools.submit(calc);
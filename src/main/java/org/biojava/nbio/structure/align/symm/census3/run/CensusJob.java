@@ -26,10 +26,11 @@ import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.StructureAlignment;
 import org.biojava.nbio.structure.align.model.AFPChain;
-import org.biojava.nbio.structure.align.util.AFPChainScorer;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.jama.Matrix;
+import org.biojava.nbio.structure.align.symm.CeSymm;
+import org.biojava.nbio.structure.align.symm.CeSymmAbortPolicy;
 import org.biojava.nbio.structure.align.symm.census3.CensusAlignment;
 import org.biojava.nbio.structure.align.symm.census3.CensusAxis;
 import org.biojava.nbio.structure.align.symm.census3.CensusResult;
@@ -39,6 +40,8 @@ import org.biojava.nbio.structure.align.symm.census3.run.Census.AlgorithmGiver;
 import org.biojava.nbio.structure.align.symm.order.OrderDetector;
 import org.biojava.nbio.structure.align.symm.order.SequenceFunctionOrderDetector;
 import org.biojava.nbio.structure.align.symm.protodomain.Protodomain;
+import org.biojava.nbio.structure.utils.CancellationToken;
+import org.biojava.nbio.structure.utils.SuperpositionCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +58,8 @@ public class CensusJob implements Callable<CensusResult> {
 
 	private AlgorithmGiver algorithm;
 	private AfpChainCensusRestrictor significance;
+	private CensusPrescreen prescreen;
+	private final CancellationToken cancellation = new CancellationToken();
 
 	private String name;
 	private Integer count;
@@ -112,8 +117,26 @@ public class CensusJob implements Callable<CensusResult> {
 		}
 		logger.debug("Got " + ca1.length + " atoms (job #" + count + ")");
 
+		// skip clearly asymmetric domains before paying for the alignment
+		if (prescreen != null && !prescreen.isPossiblySymmetric(ca1)) {
+			logger.debug("Skipped by the prescreen (job #" + count + ")");
+			CensusResult r = new CensusResult();
+			r.setId(name);
+			r.setScoreList(new CensusScoreList(null));
+			r.setStatus(CensusResult.SKIPPED_BY_PRESCREEN);
+			return r;
+		}
+
 		// run the alignment
 		StructureAlignment algorithm = this.algorithm.getAlgorithm();
+		if (algorithm instanceof CeSymm && significance instanceof CeSymmAbortPolicy) {
+			// let the significance policy stop CE-Symm as soon as the result can't be significant
+			((CeSymm) algorithm).setAbortPolicy((CeSymmAbortPolicy) significance);
+		}
+		if (algorithm instanceof CeSymm) {
+			// cancelling a Future can't stop CE-Symm, but cancelling the job can
+			((CeSymm) algorithm).setCancellationToken(cancellation);
+		}
 		AFPChain afpChain = null;
 		logger.debug("Running CE-Symm (job #" + count + ")");
 		try {
@@ -122,11 +145,29 @@ public class CensusJob implements Callable<CensusResult> {
 			logger.error("Failed running CE-Symm on " + name + ": " + e.getMessage(), e);
 			return convertResult(null, null, null, null, name, null);
 		}
+		if (isTimedOut(algorithm)) {
+			logger.warn("CE-Symm ran out of time on " + name + " (job #" + count + ")");
+			CensusResult r = new CensusResult();
+			r.setId(name);
+			r.setScoreList(new CensusScoreList(null));
+			r.setStatus(CensusResult.TIMED_OUT);
+			return r;
+		}
 		if (afpChain == null || afpChain.getOptAln() == null) {
 			logger.debug("CE-Symm returned null (job #" + count + ")");
 			return convertResult(null, null, null, null, name, null);
 		}
 
+		if (isAborted(algorithm)) {
+			logger.debug("CE-Symm stopped after " + ((CeSymm) algorithm).getAbortedAt() + " (job #" + count + ")");
+			// the alignment may not be post-processed, so only its scores are recorded
+			CensusResult r = new CensusResult();
+			r.setId(name);
+			r.setScoreList(new CensusScoreList(afpChain));
+			r.setStatus(CensusResult.ABORTED_EARLY);
+			return r;
+		}
+
 		// there are two cases in which we know there is no symmetry
 		if (afpChain.getBlockNum() != 2) {
 			logger.debug("CE-Symm returned a result with " + afpChain.getBlockNum() + " block(s) (job #" + count + ")");
@@ -210,6 +251,21 @@ public class CensusJob implements Callable<CensusResult> {
 		this.orderDetector = orderDetector;
 	}
 
+	/**
+	 * @param prescreen A test run before CE-Symm, or null (the default) to align every domain
+	 */
+	public void setPrescreen(CensusPrescreen prescreen) {
+		this.prescreen = prescreen;
+	}
+
+	/**
+	 * Stops CE-Symm on this job as soon as it next checks, so that the job returns a result with status
+	 * {@link CensusResult#TIMED_OUT}. Safe to call from any thread.
+	 */
+	public void cancel() {
+		cancellation.cancel();
+	}
+
 	public void nullifyAfpChain() {
 		this.afpChain = null;
 	}
@@ -271,11 +327,20 @@ public class CensusJob implements Callable<CensusResult> {
 		if (afpChain == null) return null;
 		afpChain.setName1(name);
 		afpChain.setName2(name);
-		double realTmScore = AFPChainScorer.getTMScore(afpChain, ca1, ca2);
+		if (isAborted(algorithm)) return afpChain; // not worth a TM-score
+		double realTmScore = SuperpositionCache.getTMScore(afpChain, ca1, ca2);
 		afpChain.setTMScore(realTmScore);
 		return afpChain;
 	}
 
+	private static boolean isTimedOut(StructureAlignment algorithm) {
+		return algorithm instanceof CeSymm && ((CeSymm) algorithm).isTimedOut();
+	}
+
+	private static boolean isAborted(StructureAlignment algorithm) {
+		return algorithm instanceof CeSymm && ((CeSymm) algorithm).getAbortedAt() != null;
+	}
+
 	/**
 	 * Returns the <em>magnitude</em> of the angle between the first and second blocks of {@code afpChain}, measured in
 	 * degrees. This is always a positive value (unsigned).
@@ -0,0 +1,18 @@
+package org.biojava.nbio.structure.align.symm.census3.run;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * A cheap test run on a domain's atoms before CE-Symm, to skip domains that are clearly not symmetric.
+ * Unlike {@link AfpChainCensusRestrictor}, this runs before the alignment is paid for.
+ * @author dmyersturnbull
+ */
+public interface CensusPrescreen {
+
+	/**
+	 * @param ca The C-alpha atoms of the domain
+	 * @return false if the domain is clearly asymmetric and CE-Symm can be skipped
+	 */
+	boolean isPossiblySymmetric(Atom[] ca);
+
+}
@@ -0,0 +1,134 @@
+package org.biojava.nbio.structure.align.symm.census3.run;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.utils.IntraDistanceCache;
+
+/**
+ * Screens domains by the self-correlation of their contact map.
+ *
+ * A domain made of repeated units has a contact map that largely maps onto
+ * itself when shifted along the sequence by the length of a unit, which is
+ * what CE-Symm's alignment against a duplicated copy of the chain detects.
+ * The score of a domain is the largest fraction of its contacts that are
+ * preserved by a circular shift of at least {@link #MIN_SHIFT} residues,
+ * allowing each end of a contact to move by one residue.
+ *
+ * A threshold of 0 passes every domain. Use
+ * {@link #calibrate(List, double)} to pick a threshold from domains known to be
+ * symmetric, for a chosen rate of symmetric domains wrongly skipped.
+ *
+ * @author dmyersturnbull
+ */
+public class ContactMapPrescreen implements CensusPrescreen {
+
+	/**
+	 * The distance in Angstroms below which two C-alpha atoms are in contact.
+	 */
+	public static final double CONTACT_DISTANCE = 8.0;
+
+	/**
+	 * The minimum sequence separation of a contact.
+	 */
+	public static final int MIN_SEPARATION = 3;
+
+	/**
+	 * The minimum shift considered, so that the shifted map doesn't trivially overlap the original.
+	 */
+	public static final int MIN_SHIFT = 10;
+
+	private final double threshold;
+
+	/**
+	 * @param threshold The minimum {@link #score(Atom[]) score} of a domain that is possibly symmetric
+	 */
+	public ContactMapPrescreen(double threshold) {
+		this.threshold = threshold;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public boolean isPossiblySymmetric(Atom[] ca) {
+		if (threshold <= 0) return true;
+		return score(ca) >= threshold;
+	}
+
+	/**
+	 * @return The largest fraction of contacts of {@code ca} preserved under a circular shift, from 0 to 1
+	 */
+	public static double score(Atom[] ca) {
+
+		int n = ca.length;
+		if (n < 2 * MIN_SHIFT) return 1; // too short to judge, so let CE-Symm decide
+
+		// shared with any other analysis of the same atoms
+		IntraDistanceCache distances = IntraDistanceCache.forAtoms(ca);
+		BitSet map = new BitSet(n * n);
+		List<int[]> contacts = new ArrayList<int[]>();
+		for (int k = MIN_SEPARATION; k < n; k++) {
+			double[] diagonal = distances.getDiagonalAtK(k);
+			for (int i = 0; i < diagonal.length; i++) {
+				if (diagonal[i] < CONTACT_DISTANCE) {
+					int j = i + k;
+					map.set(i * n + j);
+					map.set(j * n + i);
+					contacts.add(new int[] {i, j});
+				}
+			}
+		}
+		if (contacts.isEmpty()) return 0;
+
+		int best = 0;
+		for (int shift = MIN_SHIFT; shift <= n - MIN_SHIFT; shift++) {
+			int preserved = 0;
+			for (int[] contact : contacts) {
+				if (isNearContact(map, n, (contact[0] + shift) % n, (contact[1] + shift) % n)) preserved++;
+			}
+			if (preserved > best) best = preserved;
+		}
+		return (double) best / contacts.size();
+	}
+
+	private static boolean isNearContact(BitSet map, int n, int i, int j) {
+		for (int di = -1; di <= 1; di++) {
+			int a = i + di;
+			if (a < 0 || a >= n) continue;
+			for (int dj = -1; dj <= 1; dj++) {
+				int b = j + dj;
+				if (b < 0 || b >= n) continue;
+				if (map.get(a * n + b)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Picks the threshold that wrongly skips a given fraction of domains known to be symmetric.
+	 * @param symmetric The C-alpha atoms of domains known to be symmetric
+	 * @param falseNegativeRate The fraction of them that may be skipped, from 0 to 1
+	 * @return A prescreen with the calibrated threshold
+	 */
+	public static ContactMapPrescreen calibrate(List<Atom[]> symmetric, double falseNegativeRate) {
+		if (symmetric.isEmpty()) throw new IllegalArgumentException("Need at least one symmetric domain to calibrate");
+		if (falseNegativeRate < 0 || falseNegativeRate > 1) {
+			throw new IllegalArgumentException("The false negative rate must be between 0 and 1");
+		}
+		double[] scores = new double[symmetric.size()];
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = score(symmetric.get(i));
+		}
+		Arrays.sort(scores);
+		// domains scoring below the threshold are skipped
+		int skipped = (int) Math.floor(falseNegativeRate * scores.length);
+		if (skipped >= scores.length) return new ContactMapPrescreen(Double.POSITIVE_INFINITY);
+		return new ContactMapPrescreen(scores[skipped]);
+	}
+
+}
@@ -0,0 +1,33 @@
+package org.biojava.nbio.structure.align.symm.census3.run;
+
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.symm.CeSymmAbortPolicy;
+
+/**
+ * Treats results with a low CE z-score as insignificant, and stops CE-Symm as
+ * soon as the z-score of the first alignment is known to be too low, starting
+ * with the z-score of its trace.
+ * @author dmyersturnbull
+ */
+public class ZScoreCensusRestrictor implements AfpChainCensusRestrictor, CeSymmAbortPolicy {
+
+	private final double minZScore;
+
+	/**
+	 * @param minZScore The lowest z-score (stored as the probability of the AFPChain) worth analyzing further
+	 */
+	public ZScoreCensusRestrictor(double minZScore) {
+		this.minZScore = minZScore;
+	}
+
+	@Override
+	public boolean isPossiblySignificant(AFPChain afpChain) {
+		return afpChain.getProbability() >= minZScore;
+	}
+
+	@Override
+	public boolean shouldContinue(Stage stage, AFPChain afpChain) {
+		return isPossiblySignificant(afpChain);
+	}
+
+}
@@ -21,6 +21,7 @@ public class PeakCountingOrderDetector implements OrderDetector {
 	private double bandwidth = 0.1;
 	private int robustnessIterations = LoessInterpolator.DEFAULT_ROBUSTNESS_ITERS;
 	private double loessAccuracy = LoessInterpolator.DEFAULT_ACCURACY;
+	private int threads = 1;
 
 	public PeakCountingOrderDetector(int maxOrder) {
 		super();
@@ -33,7 +34,7 @@ public class PeakCountingOrderDetector implements OrderDetector {
 		try {
 
 			RotationAxis axis = new RotationAxis(afpChain);
-			Pair<double[],double[]> pair = RotationOrderDetector.sampleRotations(ca, axis, degreeSampling);
+			Pair<double[],double[]> pair = RotationOrderDetector.sampleRotations(ca, axis, degreeSampling, threads);
 
 			LoessInterpolator loess = new LoessInterpolator(bandwidth, robustnessIterations, loessAccuracy);
 
@@ -121,6 +122,13 @@ public class PeakCountingOrderDetector implements OrderDetector {
 		this.loessAccuracy = loessAccuracy;
 	}
 
+	/**
+	 * @param threads The number of threads to sample rotations on; 0 for one per processor
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	public static void main(String[] args) throws Exception {
 
 //		String name = "d1ijqa1"; // 6
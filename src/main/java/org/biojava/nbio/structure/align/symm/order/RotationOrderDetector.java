@@ -1,15 +1,17 @@
 package org.biojava.nbio.structure.align.symm.order;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.math3.util.Pair;
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Calc;
 import org.biojava.nbio.structure.StructureException;
-import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.model.AFPChain;
 import org.biojava.nbio.structure.align.util.RotationAxis;
 import org.biojava.nbio.structure.jama.Matrix;
+import org.biojava.nbio.structure.utils.CoordinateBlock;
+import org.biojava.nbio.structure.utils.ParallelWorkers;
 
 /**
  * Detects order by analyzing the goodness of fit as the protein is rotated
@@ -20,6 +22,7 @@ public class RotationOrderDetector implements OrderDetector {
 	public static enum RotationOrderMethod {
 		HARMONICS,
 		HARMONICS_FLOATING,
+		HARMONICS_DFT,
 		SINGLE_HARMONIC_AMP,
 		SINGLE_HARMONIC_SSE,
 		SINGLE_CUSP_AMP,
@@ -31,7 +34,14 @@ public class RotationOrderDetector implements OrderDetector {
 	public static final double DEFAULT_ANGLE_INCR = 5*Calc.radiansPerDegree;
 	private double angleIncr = DEFAULT_ANGLE_INCR; // angular resolution
 
+	/** Increments for {@link #sampleRotationsAdaptive(Atom[], RotationAxis, double, double, int)}, in degrees */
+	public static final double DEFAULT_COARSE_DEGREES = 15;
+	public static final double DEFAULT_FINE_DEGREES = 0.25;
+
 	private RotationOrderMethod method;
+
+	private int threads = 1;
+
 	public RotationOrderDetector() {
 		this(8);
 	}
@@ -70,6 +80,17 @@ public class RotationOrderDetector implements OrderDetector {
 		this.angleIncr = angleIncr;
 	}
 
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads The number of threads to sample rotations on; 0 for one per processor
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	@Override
 	public int calculateOrder(AFPChain afpChain, Atom[] ca) throws OrderDetectionFailedException {
 		//TODO only use aligned residues, rather than the whole ca
@@ -78,6 +99,8 @@ public class RotationOrderDetector implements OrderDetector {
 			return calculateOrderHarmonics(afpChain,ca);
 		case HARMONICS_FLOATING:
 			return calculateOrderHarmonicsFloating(afpChain,ca);
+		case HARMONICS_DFT:
+			return calculateOrderHarmonicsDFT(afpChain,ca);
 		case SINGLE_HARMONIC_AMP:
 			return calculateOrderSingleHarmonicsByAmp(afpChain,ca);
 		case SINGLE_HARMONIC_SSE:
@@ -95,27 +118,259 @@ public class RotationOrderDetector implements OrderDetector {
 	 * The {@code n}th element in the array corresponds to a rotation by {@code degreesIncrement * n} degrees.
 	 */
 	public static Pair<double[],double[]> sampleRotations(Atom[] ca, RotationAxis axis, double degreesIncrement) throws StructureException {
-		
-		final double angleIncr = degreesIncrement*Calc.radiansPerDegree;
-		final int steps = (int)Math.floor(2*Math.PI/angleIncr);
+		return sampleRotations(ca, axis, degreesIncrement, 1);
+	}
 
-		double[] angles = new double[steps];
-		double[] distances = new double[steps];
+	/**
+	 * Same as {@link #sampleRotations(Atom[], RotationAxis, double)}, with the
+	 * rotations divided among {@code threads} threads. Rotations are taken from
+	 * the {@link RotationProfileCache} of {@code ca}, so sampling the same
+	 * structure about the same axis again costs nothing.
+	 * @param threads The number of threads; 0 for one per processor
+	 */
+	public static Pair<double[],double[]> sampleRotations(Atom[] ca, RotationAxis axis, double degreesIncrement, int threads) throws StructureException {
+		return RotationProfileCache.forAtoms(ca).getRotations(axis, degreesIncrement*Calc.radiansPerDegree, threads);
+	}
 
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
-		double angle = 0;
+	/**
+	 * Like {@link #sampleRotations(Atom[], RotationAxis, double, int)}, but
+	 * only samples finely where it matters.
+	 *
+	 * The superposition distance is symmetric and unchanged by moving both
+	 * structures, so the distance at angle a is the distance at 2&pi;-a, and
+	 * only the half turn from 0 to &pi; is sampled, as {@link #fitHarmonics(Atom[], RotationAxis)}
+	 * does. A coarse pass over it is followed by a search around each of its
+	 * deep local minima, those in the lower half of the range of distances
+	 * away from the identity at angle 0: the interval around each
+	 * minimum is halved at every level until the best angle is known to within
+	 * half of {@code fineDegrees}. Each level first probes the side of the best
+	 * angle so far whose neighbor is lower, and only probes the other side if that
+	 * doesn't improve on it. Probes past &pi; are sampled at their mirror image,
+	 * so a minimum at &pi; costs one sample per level. The probes of every minimum
+	 * at one level are sampled together, on {@code threads} threads.
+	 * @param coarseDegrees The increment of the coarse pass, such as {@link #DEFAULT_COARSE_DEGREES}
+	 * @param fineDegrees The resolution around minima, such as {@link #DEFAULT_FINE_DEGREES}
+	 * @param threads The number of threads; 0 for one per processor
+	 * @return The angles sampled, in increasing order from 0 to &pi;, and the distance at each
+	 */
+	public static Pair<double[],double[]> sampleRotationsAdaptive(Atom[] ca, RotationAxis axis,
+			double coarseDegrees, double fineDegrees, int threads) {
+
+		final double coarseIncr = coarseDegrees*Calc.radiansPerDegree;
+		final double fineIncr = fineDegrees*Calc.radiansPerDegree;
+		// steps 0 through halfSteps cover the half turn
+		final int halfSteps = (int)Math.floor(Math.PI/coarseIncr + 1e-9);
+		double[] coarse = RotationProfileCache.forAtoms(ca).getDistances(axis, coarseIncr, 0, halfSteps+1, threads);
+
+		// deep local minima of the coarse pass: in the lower half of the range of the profile, since
+		// the closest atoms make shallow bumps elsewhere. Step 0 is the identity, and past the last step
+		// the profile is mirrored
+		double lowest = Double.POSITIVE_INFINITY;
+		double highest = Double.NEGATIVE_INFINITY;
+		for (int step=1; step<=halfSteps;step++) {
+			lowest = Math.min(lowest, coarse[step]);
+			highest = Math.max(highest, coarse[step]);
+		}
+		double deep = (lowest + highest)/2;
+		int[] minima = new int[halfSteps];
+		int nMinima = 0;
+		for (int step=1; step<=halfSteps;step++) {
+			double next = coarse[step < halfSteps ? step+1 : step-1];
+			if(coarse[step] <= coarse[step-1] && coarse[step] < next && coarse[step] <= deep) {
+				minima[nMinima++] = step;
+			}
+		}
+		int levels = 0;
+		for(double halfWidth = coarseIncr; halfWidth > fineIncr/2; halfWidth /= 2) {
+			levels++;
+		}
+
+		double[] angles = new double[halfSteps+1 + 2*levels*nMinima];
+		double[] distances = new double[angles.length];
+		int n = 0;
+		for (int step=0; step<=halfSteps;step++) {
+			angles[n] = coarseIncr*step;
+			distances[n] = coarse[step];
+			n++;
+		}
+
+		// the best angle found so far around each minimum, and the distances halfWidth to either side of it
+		double[] centers = new double[nMinima];
+		double[] best = new double[nMinima];
+		double[] left = new double[nMinima];
+		double[] right = new double[nMinima];
+		for(int i=0;i<nMinima;i++) {
+			centers[i] = coarseIncr*minima[i];
+			best[i] = coarse[minima[i]];
+			left[i] = coarse[minima[i]-1];
+			right[i] = coarse[minima[i] < halfSteps ? minima[i]+1 : minima[i]-1];
+		}
 
+		CoordinateBlock coords = new CoordinateBlock(ca);
+		double halfWidth = coarseIncr;
+		for(int level=0;level<levels;level++) {
+			halfWidth /= 2;
+
+			// probe each minimum on the side of its lower neighbor first
+			boolean[] toLeft = new boolean[nMinima];
+			double[] sides = new double[nMinima];
+			double[] probes = new double[nMinima];
+			for(int i=0;i<nMinima;i++) {
+				toLeft[i] = left[i] <= right[i];
+				sides[i] = toLeft[i] ? centers[i] - halfWidth : centers[i] + halfWidth;
+				probes[i] = mirror(sides[i]);
+			}
+			double[] probed = sampleDistances(coords, axis, probes, threads);
+			System.arraycopy(probes, 0, angles, n, nMinima);
+			System.arraycopy(probed, 0, distances, n, nMinima);
+			n += nMinima;
+
+			// if the first side is no better, the minimum can still be on the other side
+			int[] others = new int[nMinima];
+			double[] otherProbes = new double[nMinima];
+			int nOthers = 0;
+			for(int i=0;i<nMinima;i++) {
+				if(probed[i] < best[i]) {
+					if(toLeft[i]) {
+						right[i] = best[i];
+					} else {
+						left[i] = best[i];
+					}
+					centers[i] = sides[i];
+					best[i] = probed[i];
+					continue;
+				}
+				double other = mirror(toLeft[i] ? centers[i] + halfWidth : centers[i] - halfWidth);
+				if(Math.abs(other - probes[i]) < 1e-9) {
+					// both sides have the same mirror image, as around pi
+					left[i] = right[i] = probed[i];
+					continue;
+				}
+				others[nOthers] = i;
+				otherProbes[nOthers] = other;
+				nOthers++;
+			}
+			double[] otherProbed = sampleDistances(coords, axis, Arrays.copyOf(otherProbes, nOthers), threads);
+			System.arraycopy(otherProbes, 0, angles, n, nOthers);
+			System.arraycopy(otherProbed, 0, distances, n, nOthers);
+			n += nOthers;
+
+			for(int j=0;j<nOthers;j++) {
+				int i = others[j];
+				double side = toLeft[i] ? centers[i] + halfWidth : centers[i] - halfWidth;
+				if(otherProbed[j] < best[i]) {
+					if(toLeft[i]) {
+						left[i] = best[i];
+					} else {
+						right[i] = best[i];
+					}
+					centers[i] = side;
+					best[i] = otherProbed[j];
+				} else if(toLeft[i]) {
+					left[i] = probed[i];
+					right[i] = otherProbed[j];
+				} else {
+					left[i] = otherProbed[j];
+					right[i] = probed[i];
+				}
+			}
+		}
+
+		// insertion sort by angle; most of the samples are already in order
+		for(int i=1;i<n;i++) {
+			double angle = angles[i];
+			double dist = distances[i];
+			int j = i;
+			while(j > 0 && angles[j-1] > angle) {
+				angles[j] = angles[j-1];
+				distances[j] = distances[j-1];
+				j--;
+			}
+			angles[j] = angle;
+			distances[j] = dist;
+		}
+
+		return new Pair<double[], double[]>(Arrays.copyOf(angles, n), Arrays.copyOf(distances, n));
+	}
+
+	/**
+	 * @return The angle within 0 to &pi; at which the superposition distance is the same as at {@code angle}
+	 */
+	private static double mirror(double angle) {
+		angle %= 2*Math.PI;
+		if(angle < 0) angle += 2*Math.PI;
+		return angle <= Math.PI ? angle : 2*Math.PI - angle;
+	}
+
+	/**
+	 * Computes the {@link #superpositionDistance(CoordinateBlock, CoordinateBlock) superposition distance}
+	 * between {@code ca} and {@code ca} rotated about {@code axis} by
+	 * {@code firstAngle + angleIncr*step} radians, for each step.
+	 * @param ca The structure; its atoms are not moved
+	 * @param threads The number of threads; 0 for one per processor
+	 * @return The distance for each step
+	 * @see #sampleDistances(CoordinateBlock, RotationAxis, double[], int)
+	 */
+	public static double[] sampleDistances(Atom[] ca, RotationAxis axis, double firstAngle, double angleIncr,
+			int steps, int threads) {
+		double[] angles = new double[steps];
 		for (int step=0; step<steps;step++) {
-			angles[step] = angle;
-			double dist = superpositionDistance(ca, ca2);
-			distances[step] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
-			angle += angleIncr;
+			angles[step] = firstAngle + angleIncr*step;
+		}
+		return sampleDistances(new CoordinateBlock(ca), axis, angles, threads);
+	}
+
+	/**
+	 * Computes the {@link #superpositionDistance(CoordinateBlock, CoordinateBlock) superposition distance}
+	 * between {@code coords} and {@code coords} rotated about {@code axis} by each of {@code angles}.
+	 *
+	 * Each rotation is computed directly from the original coordinates,
+	 * rather than by rotating a copy a little further at each step, so the
+	 * angles are independent of one another and rounding errors don't add up
+	 * over the turn. Angles are handed out to the threads one at a time, and
+	 * each thread rotates into its own buffer.
+	 * @param coords The structure, which is not modified
+	 * @param angles The angles in radians
+	 * @param threads The number of threads; 0 for one per processor
+	 * @return The distance for each angle
+	 */
+	public static double[] sampleDistances(final CoordinateBlock coords, RotationAxis axis, final double[] angles, int threads) {
+
+		final double[] distances = new double[angles.length];
+
+		final double[] direction;
+		final double[] point;
+		final boolean rotate = axis.isDefined();
+		if (rotate) {
+			Atom u = axis.getRotationAxis();
+			double norm = Math.sqrt(u.getX()*u.getX() + u.getY()*u.getY() + u.getZ()*u.getZ());
+			direction = new double[] {u.getX()/norm, u.getY()/norm, u.getZ()/norm};
+			Atom pos = axis.getRotationPos();
+			point = new double[] {pos.getX(), pos.getY(), pos.getZ()};
+		} else {
+			// RotationAxis.rotate leaves the atoms where they are
+			direction = null;
+			point = null;
 		}
-		
-		return new Pair<double[], double[]>(angles, distances);
-		
+
+		final AtomicInteger next = new AtomicInteger();
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				CoordinateBlock rotated = new CoordinateBlock(coords);
+				int i;
+				while ((i = next.getAndIncrement()) < angles.length) {
+					if (rotate) {
+						rotated.setRotated(coords, direction, point, angles[i]);
+					}
+					distances[i] = superpositionDistance(coords, rotated);
+				}
+			}
+		};
+		if (threads < 1) threads = ParallelWorkers.getDefaultThreads();
+		ParallelWorkers.run(Math.max(Math.min(threads, angles.length), 1), worker);
+
+		return distances;
 	}
 	
 	int calculateOrderHarmonics(AFPChain afpChain, Atom[] ca) throws OrderDetectionFailedException {
@@ -176,6 +431,35 @@ public class RotationOrderDetector implements OrderDetector {
 			throw new OrderDetectionFailedException(e);
 		}
 	}
+	int calculateOrderHarmonicsDFT(AFPChain afpChain, Atom[] ca) throws OrderDetectionFailedException {
+
+		try {
+
+			RotationAxis axis = new RotationAxis(afpChain);
+
+			// Use C1 order if the axis is undefined
+			if(!axis.isDefined()) {
+				return 1;
+			}
+			// Calculate weights for each order
+			double[] coefficients = fitHarmonicsDFT(ca,axis);
+
+			// Find order with maximum weight
+			// ignore initial intercept term
+			double bestScore = coefficients[1];
+			int maxorder = 1;
+			for(int order=2;order<coefficients.length;order++) {
+				if(coefficients[order] > bestScore ) {
+					maxorder = order;
+					bestScore = coefficients[order];
+				}
+			}
+			return maxorder;
+
+		} catch (Exception e) {
+			throw new OrderDetectionFailedException(e);
+		}
+	}
 	int calculateOrderSingleHarmonicsByAmp(AFPChain afpChain, Atom[] ca) throws OrderDetectionFailedException {
 
 		try {
@@ -335,6 +619,33 @@ public class RotationOrderDetector implements OrderDetector {
 		return dist;
 	}
 
+	/**
+	 * Same as {@link #superpositionDistance(Atom[], Atom[])}, reading the
+	 * coordinates from contiguous arrays. Closest atoms of larger structures
+	 * are found with a grid rather than by measuring every pair; since the
+	 * grid of a block is kept until it is updated, rotating only {@code ca2}
+	 * step by step builds the grid of {@code ca1} once.
+	 * @param ca1 first structure
+	 * @param ca2 second structure
+	 * @return the average distance to the closest atom
+	 */
+	public static double superpositionDistance(CoordinateBlock ca1, CoordinateBlock ca2) {
+		double[] bestDist1 = new double[ca1.size()];
+		double[] bestDist2 = new double[ca2.size()];
+		ca1.closestDistancesFast(ca2, bestDist1, bestDist2);
+
+		double total = 0;
+		for(int i=0;i<bestDist1.length;i++) {
+			total += Math.sqrt(bestDist1[i]);
+		}
+		for(int j=0;j<bestDist2.length;j++) {
+			total += Math.sqrt(bestDist2[j]);
+		}
+
+		double dist = total/(bestDist1.length+bestDist2.length);
+		return dist;
+	}
+
 	/**
 	 * Models the relationship between order and superpositionDistance as a
 	 * combination of sine squared functions:
@@ -359,19 +670,16 @@ public class RotationOrderDetector implements OrderDetector {
 		// holds the sin2(i*angle/2) terms
 		double[][] harmonics = new double[steps][maxOrder];
 
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, 0, steps, threads);
 
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
+			distances[step][0] = sampled[step];
 
 			for(int order=0;order<maxOrder;order++) {
 				double angle = angleIncr*step;
 				double x = Math.sin( (order+1)*angle/2);
 				harmonics[step][order] = x*x;
 			}
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
 		}
 
 		Matrix y = new Matrix(distances);
@@ -411,7 +719,8 @@ public class RotationOrderDetector implements OrderDetector {
 	 */
 	double[] fitHarmonicsFloating(Atom[] ca, RotationAxis axis) throws StructureException {
 		// Range of angles to use for training
-		final double minAngle = Math.floor(Math.PI/maxOrder/angleIncr)*angleIncr; // first valid peak
+		final int firstStep = (int)Math.floor(Math.PI/maxOrder/angleIncr);
+		final double minAngle = firstStep*angleIncr; // first valid peak
 		final double maxAngle = Math.PI;
 		// Number of angle steps
 		final int steps = (int)Math.floor((maxAngle-minAngle)/angleIncr);
@@ -424,14 +733,10 @@ public class RotationOrderDetector implements OrderDetector {
 		// holds the sin2(i*angle/2) terms
 		double[][] harmonics = new double[steps][maxOrder+1];
 
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, firstStep, steps, threads);
 
-		if(minAngle != 0.) {
-			axis.rotate(ca2, minAngle);
-		}
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
+			distances[step][0] = sampled[step];
 
 			//initialize intercept column
 			harmonics[step][0] = 1.;
@@ -442,8 +747,6 @@ public class RotationOrderDetector implements OrderDetector {
 				double x = Math.sin( order*angle/2);
 				harmonics[step][order] = x*x;
 			}
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
 		}
 
 		Matrix y = new Matrix(distances);
@@ -462,6 +765,66 @@ public class RotationOrderDetector implements OrderDetector {
 		return harmonicWeights.transpose().getArray()[0];
 	}
 
+	/**
+	 * Models the same function as fitHarmonicsFloating,
+	 * 
+	 *  f(angle) = a0 + a1*sin(angle/2)^2 + a2*sin(2*angle/2)^2 + a3*sin(3*angle/2)^2 + ...
+	 *  
+	 * but over the whole turn, and reads the coefficients off a discrete
+	 * Fourier transform of the distances rather than solving a least-squares
+	 * problem. Since sin(k*angle/2)^2 = (1-cos(k*angle))/2, each a_k is -2 times
+	 * the cosine coefficient of order k. The distances are even in the angle,
+	 * so there are no sine terms. Over a whole turn the harmonics are
+	 * orthogonal, so this gives every a_k at once.
+	 * 
+	 * The increment should divide 360 degrees, so that the samples cover the
+	 * turn evenly.
+	 * @param ca Aligned residues from the protein structure
+	 * @param axis The rotaton axis about which to rotate
+	 * @return an array of length maxOrder+1 giving the coefficients a0...a_maxOrder
+	 *  (intercept is element 0)
+	 * @throws IllegalArgumentException If the turn has too few steps to resolve maxOrder
+	 */
+	double[] fitHarmonicsDFT(Atom[] ca, RotationAxis axis) {
+		final int steps = (int)Math.floor(2*Math.PI/angleIncr);
+		double[] distances = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, 0, steps, threads);
+		return harmonicAmplitudes(distances, angleIncr, maxOrder);
+	}
+
+	/**
+	 * @param distances The distances at angleIncr*step, for the steps of a whole turn
+	 * @return The coefficients a0...a_maxOrder of {@link #fitHarmonicsDFT(Atom[], RotationAxis)}
+	 */
+	static double[] harmonicAmplitudes(double[] distances, double angleIncr, int maxOrder) {
+		final int steps = distances.length;
+		if(2*maxOrder >= steps) {
+			throw new IllegalArgumentException("Can't resolve order "+maxOrder+" from "+steps+" steps");
+		}
+
+		// sums of distance*cos(order*angle), for orders 0 to maxOrder
+		double[] sums = new double[maxOrder+1];
+		for (int step=0; step<steps;step++) {
+			double cos = Math.cos(angleIncr*step);
+			// cos(order*angle) by the Chebyshev recurrence
+			double previous = 1, current = cos;
+			sums[0] += distances[step];
+			for(int order=1;order<=maxOrder;order++) {
+				sums[order] += distances[step]*current;
+				double next = 2*cos*current - previous;
+				previous = current;
+				current = next;
+			}
+		}
+
+		double[] coefs = new double[maxOrder+1];
+		coefs[0] = sums[0]/steps;
+		for(int order=1;order<=maxOrder;order++) {
+			coefs[order] = -4*sums[order]/steps;
+			coefs[0] -= coefs[order]/2;
+		}
+		return coefs;
+	}
+
 	/**
 	 * Like fitHarmonics, but adds an intercept term and ignores points too close
 	 * to angle 0, which artificially is forced to zero.
@@ -478,7 +841,8 @@ public class RotationOrderDetector implements OrderDetector {
 	 */
 	double[] trySingleHarmonicsFloatingByAmp(Atom[] ca, RotationAxis axis) throws StructureException {
 		// Range of angles to use for training
-		final double minAngle = Math.floor(Math.PI/maxOrder/angleIncr)*angleIncr; // first valid peak
+		final int firstStep = (int)Math.floor(Math.PI/maxOrder/angleIncr);
+		final double minAngle = firstStep*angleIncr; // first valid peak
 		final double maxAngle = Math.PI;
 		// Number of angle steps
 		final int steps = (int)Math.floor((maxAngle-minAngle)/angleIncr);
@@ -488,15 +852,9 @@ public class RotationOrderDetector implements OrderDetector {
 		// goal is to find a_1...a_maxOrder
 
 		double[][] distances = new double[steps][1];//preserve matrix dimensions
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
-		if(minAngle != 0.) {
-			axis.rotate(ca2, minAngle);
-		}
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, firstStep, steps, threads);
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
+			distances[step][0] = sampled[step];
 		}
 
 		double[] amplitudes = new double[maxOrder];
@@ -549,7 +907,8 @@ public class RotationOrderDetector implements OrderDetector {
 
 	double[] trySingleHarmonicsFloatingBySSE(Atom[] ca, RotationAxis axis) throws StructureException {
 		// Range of angles to use for training
-		final double minAngle = Math.floor(Math.PI/maxOrder/angleIncr)*angleIncr; // first valid peak
+		final int firstStep = (int)Math.floor(Math.PI/maxOrder/angleIncr);
+		final double minAngle = firstStep*angleIncr; // first valid peak
 		final double maxAngle = Math.PI;
 		// Number of angle steps
 		final int steps = (int)Math.floor((maxAngle-minAngle)/angleIncr);
@@ -559,15 +918,9 @@ public class RotationOrderDetector implements OrderDetector {
 		// goal is to find a_1...a_maxOrder
 
 		double[][] distances = new double[steps][1];//preserve matrix dimensions
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
-		if(minAngle != 0.) {
-			axis.rotate(ca2, minAngle);
-		}
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, firstStep, steps, threads);
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
+			distances[step][0] = sampled[step];
 		}
 
 		double[] sses = new double[maxOrder];
@@ -613,7 +966,8 @@ public class RotationOrderDetector implements OrderDetector {
 	}
 	double[] trySingleCuspByAmp(Atom[] ca, RotationAxis axis) throws StructureException {
 		// Range of angles to use for training
-		final double minAngle = Math.floor(Math.PI/maxOrder/angleIncr)*angleIncr; // first valid peak
+		final int firstStep = (int)Math.floor(Math.PI/maxOrder/angleIncr);
+		final double minAngle = firstStep*angleIncr; // first valid peak
 		final double maxAngle = Math.PI;
 		// Number of angle steps
 		final int steps = (int)Math.floor((maxAngle-minAngle)/angleIncr);
@@ -623,15 +977,9 @@ public class RotationOrderDetector implements OrderDetector {
 		// goal is to find a_1...a_maxOrder
 
 		double[][] distances = new double[steps][1];//preserve matrix dimensions
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
-		if(minAngle != 0.) {
-			axis.rotate(ca2, minAngle);
-		}
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, firstStep, steps, threads);
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
+			distances[step][0] = sampled[step];
 		}
 
 		double[] amplitudes = new double[maxOrder];
@@ -672,7 +1020,8 @@ public class RotationOrderDetector implements OrderDetector {
 	}
 	double[] trySingleCuspBySSE(Atom[] ca, RotationAxis axis) throws StructureException {
 		// Range of angles to use for training
-		final double minAngle = Math.floor(Math.PI/maxOrder/angleIncr)*angleIncr; // first valid peak
+		final int firstStep = (int)Math.floor(Math.PI/maxOrder/angleIncr);
+		final double minAngle = firstStep*angleIncr; // first valid peak
 		final double maxAngle = Math.PI;
 		// Number of angle steps
 		final int steps = (int)Math.floor((maxAngle-minAngle)/angleIncr);
@@ -682,15 +1031,9 @@ public class RotationOrderDetector implements OrderDetector {
 		// goal is to find a_1...a_maxOrder
 
 		double[][] distances = new double[steps][1];//preserve matrix dimensions
-		Atom[] ca2 = StructureTools.cloneCAArray(ca);
-		if(minAngle != 0.) {
-			axis.rotate(ca2, minAngle);
-		}
+		double[] sampled = RotationProfileCache.forAtoms(ca).getDistances(axis, angleIncr, firstStep, steps, threads);
 		for (int step=0; step<steps;step++) {
-			double dist = superpositionDistance(ca, ca2);
-			distances[step][0] = dist;
-			// Rotate for next step
-			axis.rotate(ca2, angleIncr);
+			distances[step][0] = sampled[step];
 		}
 
 		double[] sses = new double[maxOrder];
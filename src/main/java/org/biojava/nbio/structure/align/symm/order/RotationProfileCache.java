@@ -0,0 +1,169 @@
+package org.biojava.nbio.structure.align.symm.order;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.math3.util.Pair;
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.biojava.nbio.structure.utils.CoordinateBlock;
+
+/**
+ * The superposition distances of one structure to its rotations about an axis,
+ * sampled once and shared by every {@link OrderDetector} that analyzes it.
+ *
+ * A profile is kept for each axis and angular increment, and covers one full
+ * turn: step {@code i} is the rotation by {@code angleIncr*i}. Steps are sampled
+ * lazily, so a detector that only looks at half a turn only pays for half, and
+ * a later detector that needs the rest only samples what is missing. Detectors
+ * construct their own {@link RotationAxis} from the alignment, so axes are
+ * compared by their direction and position rather than by identity.
+ *
+ * Caches are looked up by the identity of the atom array and dropped when the
+ * array is no longer referenced, so a census job's cache lives as long as its
+ * atoms. If the atoms of a cached array have moved since, its cache is replaced.
+ *
+ * @author dmyersturnbull
+ */
+public class RotationProfileCache {
+
+	private static final Map<Atom[], RotationProfileCache> caches = Collections.synchronizedMap(new WeakHashMap<Atom[], RotationProfileCache>());
+
+	private final CoordinateBlock coords;
+	private final List<Profile> profiles = new ArrayList<Profile>();
+
+	/**
+	 * The distances at every step of one turn about one axis.
+	 */
+	private static class Profile {
+
+		private final double[] key;
+		private final double angleIncr;
+		private final double[] distances;
+		private final boolean[] known;
+
+		Profile(double[] key, double angleIncr) {
+			this.key = key;
+			this.angleIncr = angleIncr;
+			int steps = (int) Math.floor(2 * Math.PI / angleIncr);
+			distances = new double[steps];
+			known = new boolean[steps];
+		}
+	}
+
+	/**
+	 * @return The cache for {@code ca}, created if needed
+	 */
+	public static RotationProfileCache forAtoms(Atom[] ca) {
+		synchronized (caches) {
+			RotationProfileCache cache = caches.get(ca);
+			if (cache == null || !cache.matches(ca)) {
+				cache = new RotationProfileCache(ca);
+				caches.put(ca, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Drops the cache for {@code ca}.
+	 */
+	public static void forget(Atom[] ca) {
+		caches.remove(ca);
+	}
+
+	/**
+	 * Creates a cache that isn't shared.
+	 */
+	public RotationProfileCache(Atom[] ca) {
+		coords = new CoordinateBlock(ca);
+	}
+
+	/**
+	 * Same as {@link RotationOrderDetector#sampleRotations(Atom[], RotationAxis, double, int)}.
+	 * @return The angles and distances of one full turn; the arrays are copies
+	 */
+	public Pair<double[], double[]> getRotations(RotationAxis axis, double angleIncr, int threads) {
+		int steps = (int) Math.floor(2 * Math.PI / angleIncr);
+		double[] angles = new double[steps];
+		for (int step = 0; step < steps; step++) {
+			angles[step] = angleIncr * step;
+		}
+		return new Pair<double[], double[]>(angles, getDistances(axis, angleIncr, 0, steps, threads));
+	}
+
+	/**
+	 * Returns the distances to the rotations by {@code angleIncr*(firstStep+i)},
+	 * sampling the ones that aren't known yet.
+	 * @param steps The number of steps; {@code firstStep+steps} can't be more than one turn
+	 * @param threads The number of threads to sample on; 0 for one per processor
+	 * @return A copy of the distances for steps {@code firstStep} through {@code firstStep+steps-1}
+	 */
+	public synchronized double[] getDistances(RotationAxis axis, double angleIncr, int firstStep, int steps, int threads) {
+		Profile profile = getProfile(axis, angleIncr);
+		if (firstStep < 0 || firstStep + steps > profile.distances.length) {
+			throw new IllegalArgumentException("Steps " + firstStep + " to " + (firstStep + steps - 1)
+					+ " are outside of one turn of " + profile.distances.length + " steps");
+		}
+
+		int missing = 0;
+		for (int step = firstStep; step < firstStep + steps; step++) {
+			if (!profile.known[step]) missing++;
+		}
+		if (missing > 0) {
+			int[] sampled = new int[missing];
+			double[] angles = new double[missing];
+			int i = 0;
+			for (int step = firstStep; step < firstStep + steps; step++) {
+				if (profile.known[step]) continue;
+				sampled[i] = step;
+				angles[i] = angleIncr * step;
+				i++;
+			}
+			double[] distances = RotationOrderDetector.sampleDistances(coords, axis, angles, threads);
+			for (i = 0; i < missing; i++) {
+				profile.distances[sampled[i]] = distances[i];
+				profile.known[sampled[i]] = true;
+			}
+		}
+
+		double[] distances = new double[steps];
+		System.arraycopy(profile.distances, firstStep, distances, 0, steps);
+		return distances;
+	}
+
+	private Profile getProfile(RotationAxis axis, double angleIncr) {
+		double[] key = getKey(axis);
+		for (Profile profile : profiles) {
+			if (profile.angleIncr == angleIncr && Arrays.equals(profile.key, key)) return profile;
+		}
+		Profile profile = new Profile(key, angleIncr);
+		profiles.add(profile);
+		return profile;
+	}
+
+	/**
+	 * @return The direction and position of {@code axis}; every undefined axis leaves the atoms in place, so they share a key
+	 */
+	private static double[] getKey(RotationAxis axis) {
+		if (!axis.isDefined()) return new double[0];
+		Atom direction = axis.getRotationAxis();
+		Atom pos = axis.getRotationPos();
+		return new double[] {direction.getX(), direction.getY(), direction.getZ(), pos.getX(), pos.getY(), pos.getZ()};
+	}
+
+	private boolean matches(Atom[] ca) {
+		if (ca.length != coords.size()) return false;
+		for (int i = 0; i < ca.length; i++) {
+			if (ca[i].getX() != coords.getX(i) || ca[i].getY() != coords.getY(i) || ca[i].getZ() != coords.getZ(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
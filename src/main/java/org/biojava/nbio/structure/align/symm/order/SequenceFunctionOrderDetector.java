@@ -1,11 +1,10 @@
 package org.biojava.nbio.structure.align.symm.order;
 
-import java.util.Map;
-
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.align.model.AFPChain;
 import org.biojava.nbio.structure.align.util.AlignmentTools;
+import org.biojava.nbio.structure.utils.AlignmentFunction;
 
 /**
  * Calls Spencer's method for determining order.
@@ -15,7 +14,7 @@ public class SequenceFunctionOrderDetector implements OrderDetector {
 
 	private int maxSymmetry = 8;
 	private float minimumMetricChange = 0.4f;
-	
+
 	public SequenceFunctionOrderDetector() {
 		super();
 	}
@@ -29,14 +28,64 @@ public class SequenceFunctionOrderDetector implements OrderDetector {
 	@Override
 	public int calculateOrder(AFPChain afpChain, Atom[] ca) throws OrderDetectionFailedException {
 		try {
-			Map<Integer,Integer> alignment = AlignmentTools.alignmentAsMap(afpChain);
-
-			return AlignmentTools.getSymmetryOrder(alignment,
-					new AlignmentTools.IdentityMap<Integer>(), maxSymmetry, minimumMetricChange);
-//			return AlignmentTools.getSymmetryOrder(afpChain, maxSymmetry, minimumMetricChange);
+			AlignmentFunction alignment = AlignmentFunction.fromAFPChain(afpChain);
+			return getSymmetryOrder(alignment, maxSymmetry, minimumMetricChange);
 		} catch (StructureException e) {
 			throw new OrderDetectionFailedException(e);
 		}
 	}
 
+	/**
+	 * Finds the lowest n for which f^n is close to the identity.
+	 *
+	 * Gives the same order as {@link AlignmentTools#getSymmetryOrder(java.util.Map, java.util.Map, int, float)}
+	 * with an identity map: f^n is applied once per n for every residue,
+	 * and its distance from the identity is the RMS of x-f^n(x) over the
+	 * residues where f^n is defined. The first n whose distance falls below
+	 * {@code minimumMetricChange} times the best distance so far, other than
+	 * n=1, is the order.
+	 * @return The order, or 1 if none up to {@code maxSymmetry} stands out
+	 */
+	public static int getSymmetryOrder(AlignmentFunction alignment, int maxSymmetry, float minimumMetricChange) {
+
+		int length = alignment.length();
+		int[] preimage = new int[length];
+		int nAligned = 0;
+		for (int res = 0; res < length; res++) {
+			if (alignment.isAligned(res)) preimage[nAligned++] = res;
+		}
+		// f^n of each aligned residue, as n increases
+		int[] image = new int[nAligned];
+		System.arraycopy(preimage, 0, image, 0, nAligned);
+
+		double bestMetric = Double.POSITIVE_INFINITY; //lower is better
+
+		for (int n = 1; n <= maxSymmetry; n++) {
+			long deltasSq = 0;
+			int numDeltas = 0;
+			// apply alignment
+			for (int i = 0; i < nAligned; i++) {
+				int post = alignment.get(image[i]);
+				image[i] = post;
+				if (post != AlignmentFunction.UNALIGNED) {
+					long delta = post - preimage[i];
+					deltasSq += delta * delta;
+					numDeltas++;
+				}
+			}
+
+			// root mean squared distance from the identity
+			double metric = Math.sqrt((double) deltasSq / numDeltas);
+
+			if (metric < bestMetric * minimumMetricChange) {
+				// n = 1 is never the best symmetry
+				if (bestMetric < Double.POSITIVE_INFINITY) {
+					return n;
+				}
+				bestMetric = metric;
+			}
+		}
+		return 1;
+	}
+
 }
@@ -0,0 +1,218 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.util.AlignmentTools;
+
+/**
+ * A residue alignment f, as a dense array from residue index to residue index.
+ *
+ * This is the same function as {@link AlignmentTools#alignmentAsMap(AFPChain)}
+ * gives, but looking up f(x) or iterating f^k(x) doesn't box or hash, which
+ * matters for refinement and order detection, since they apply f many times
+ * per residue. Residues are indices into the atom arrays of the alignment,
+ * from 0 to {@link #length()}-1; unaligned residues map to {@link #UNALIGNED}.
+ *
+ * @author dmyersturnbull
+ */
+public class AlignmentFunction {
+
+	/**
+	 * The image of a residue that isn't aligned.
+	 */
+	public static final int UNALIGNED = -1;
+
+	private final int[] images;
+
+	/**
+	 * Creates an empty alignment of residues 0 to {@code length}-1.
+	 */
+	public AlignmentFunction(int length) {
+		images = new int[length];
+		Arrays.fill(images, UNALIGNED);
+	}
+
+	/**
+	 * @return The optimal alignment of {@code afpChain}, from the first structure to the second
+	 * @throws StructureException If a residue of the first structure is aligned more than once
+	 */
+	public static AlignmentFunction fromAFPChain(AFPChain afpChain) throws StructureException {
+		int[][][] optAln = afpChain.getOptAln();
+		int[] optLen = afpChain.getOptLen();
+		int blocks = optAln == null ? 0 : afpChain.getBlockNum();
+
+		int length = Math.max(afpChain.getCa1Length(), afpChain.getCa2Length());
+		for (int block = 0; block < blocks; block++) {
+			for (int i = 0; i < optLen[block]; i++) {
+				length = Math.max(length, Math.max(optAln[block][0][i], optAln[block][1][i]) + 1);
+			}
+		}
+
+		AlignmentFunction f = new AlignmentFunction(length);
+		for (int block = 0; block < blocks; block++) {
+			for (int i = 0; i < optLen[block]; i++) {
+				int pre = optAln[block][0][i];
+				if (f.images[pre] != UNALIGNED) {
+					throw new StructureException("Residue " + pre + " is aligned more than once");
+				}
+				f.images[pre] = optAln[block][1][i];
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * @param map An alignment whose residues are all non-negative; null images are taken as unaligned
+	 * @throws IllegalArgumentException If a residue is negative
+	 */
+	public static AlignmentFunction fromMap(Map<Integer, Integer> map) {
+		int length = 0;
+		for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+			length = Math.max(length, entry.getKey() + 1);
+			if (entry.getValue() != null) length = Math.max(length, entry.getValue() + 1);
+		}
+		AlignmentFunction f = new AlignmentFunction(length);
+		for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+			if (entry.getKey() < 0 || entry.getValue() != null && entry.getValue() < 0) {
+				throw new IllegalArgumentException("Negative residue in " + entry);
+			}
+			if (entry.getValue() != null) f.images[entry.getKey()] = entry.getValue();
+		}
+		return f;
+	}
+
+	/**
+	 * @return The number of residues this function is defined over, aligned or not
+	 */
+	public int length() {
+		return images.length;
+	}
+
+	/**
+	 * @return The number of aligned residues
+	 */
+	public int size() {
+		int size = 0;
+		for (int image : images) {
+			if (image != UNALIGNED) size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @return f(res), or {@link #UNALIGNED} if {@code res} isn't aligned or is out of range
+	 */
+	public int get(int res) {
+		return res < 0 || res >= images.length ? UNALIGNED : images[res];
+	}
+
+	/**
+	 * Sets f(res).
+	 * @param image The residue {@code res} is aligned to, or {@link #UNALIGNED}
+	 */
+	public void set(int res, int image) {
+		if (image < UNALIGNED || image >= images.length) {
+			throw new IndexOutOfBoundsException("Residue " + image + " is outside of 0 to " + (images.length - 1));
+		}
+		images[res] = image;
+	}
+
+	public boolean isAligned(int res) {
+		return get(res) != UNALIGNED;
+	}
+
+	/**
+	 * @return f^n(res), or {@link #UNALIGNED} if it isn't defined
+	 */
+	public int apply(int res, int n) {
+		for (int step = 0; step < n && res != UNALIGNED; step++) {
+			res = get(res);
+		}
+		return res;
+	}
+
+	public AlignmentFunction copy() {
+		AlignmentFunction copy = new AlignmentFunction(images.length);
+		System.arraycopy(images, 0, copy.images, 0, images.length);
+		return copy;
+	}
+
+	/**
+	 * @return The aligned residues, as {@link AlignmentTools#alignmentAsMap(AFPChain)} would give them
+	 */
+	public Map<Integer, Integer> toMap() {
+		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+		for (int res = 0; res < images.length; res++) {
+			if (images[res] != UNALIGNED) map.put(res, images[res]);
+		}
+		return map;
+	}
+
+	/**
+	 * Lists the aligned residues in order of the first structure, starting a new
+	 * block wherever the residues of the second structure stop increasing.
+	 * @return An {@code optAln} for {@link AFPChain#setOptAln(int[][][])}
+	 */
+	public int[][][] toOptAln() {
+		int size = size();
+		int[] lengths = new int[Math.max(size, 1)];
+		int blocks = 0;
+		int last = Integer.MAX_VALUE;
+		for (int res = 0; res < images.length; res++) {
+			if (images[res] == UNALIGNED) continue;
+			if (images[res] <= last) blocks++;
+			lengths[blocks - 1]++;
+			last = images[res];
+		}
+
+		int[][][] optAln = new int[blocks][2][];
+		int block = -1;
+		int pos = 0;
+		last = Integer.MAX_VALUE;
+		for (int res = 0; res < images.length; res++) {
+			if (images[res] == UNALIGNED) continue;
+			if (images[res] <= last) {
+				block++;
+				pos = 0;
+				optAln[block][0] = new int[lengths[block]];
+				optAln[block][1] = new int[lengths[block]];
+			}
+			optAln[block][0][pos] = res;
+			optAln[block][1][pos] = images[res];
+			pos++;
+			last = images[res];
+		}
+		return optAln;
+	}
+
+	/**
+	 * @return A copy of {@code afpChain} whose optimal alignment is this function
+	 * @see AlignmentTools#replaceOptAln(int[][][], AFPChain, Atom[], Atom[])
+	 */
+	public AFPChain toAFPChain(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+		return AlignmentTools.replaceOptAln(toOptAln(), afpChain, ca1, ca2);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof AlignmentFunction)) return false;
+		return Arrays.equals(images, ((AlignmentFunction) obj).images);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(images);
+	}
+
+	@Override
+	public String toString() {
+		return AlignmentTools.toConciseAlignmentString(toMap());
+	}
+
+}
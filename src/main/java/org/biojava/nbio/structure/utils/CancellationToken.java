@@ -0,0 +1,64 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets a long computation be stopped from another thread, or once a deadline
+ * has passed.
+ *
+ * Computations poll {@link #check()} at points where they can stop cleanly,
+ * since interrupting a thread doesn't stop a CPU-bound loop. A token can have
+ * a parent, in which case it also fires when its parent does; that way a job
+ * can give one alignment a time budget while still honoring a cancellation
+ * of the whole job.
+ *
+ * @author dmyersturnbull
+ */
+public class CancellationToken {
+
+	private final CancellationToken parent;
+	private final long deadline; // by System.nanoTime; only meaningful if hasDeadline
+	private final boolean hasDeadline;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates a token that only fires when {@link #cancel() cancelled}.
+	 */
+	public CancellationToken() {
+		this(null, 0);
+	}
+
+	/**
+	 * @param parent A token whose cancellation also cancels this one, or null
+	 * @param timeLimit The number of milliseconds from now after which this token fires; 0 or less for no limit
+	 */
+	public CancellationToken(CancellationToken parent, long timeLimit) {
+		this.parent = parent;
+		hasDeadline = timeLimit > 0;
+		deadline = hasDeadline ? System.nanoTime() + timeLimit * 1000000L : 0;
+	}
+
+	/**
+	 * Fires this token, and any tokens that have it as their parent.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return Whether this token or its parent has been cancelled, or the deadline has passed
+	 */
+	public boolean isCancelled() {
+		if (cancelled) return true;
+		if (hasDeadline && System.nanoTime() - deadline >= 0) return true;
+		return parent != null && parent.isCancelled();
+	}
+
+	/**
+	 * @throws CancellationException If this token has fired
+	 */
+	public void check() {
+		if (isCancelled()) throw new CancellationException(hasDeadline ? "Cancelled or out of time" : "Cancelled");
+	}
+
+}
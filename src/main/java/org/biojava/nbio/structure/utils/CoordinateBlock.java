@@ -0,0 +1,201 @@
+package org.biojava.nbio.structure.utils;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * The coordinates of an array of atoms, stored as three contiguous arrays.
+ *
+ * Distance loops over {@link Atom} objects chase a pointer for every
+ * coordinate they read. Copying the coordinates into plain arrays once lets
+ * the O(n<sup>2</sup>) loops of symmetry detection stream through memory instead.
+ * The distances returned are computed exactly as {@code Calc.getDistance} and
+ * {@code Calc.getDistanceFast} compute them, so results don't change.
+ *
+ * @author dmyersturnbull
+ */
+public class CoordinateBlock {
+
+	// below this many atoms, measuring every pair is about as fast as searching grids
+	private static final int MIN_GRID_SIZE = 300;
+
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	// built when first needed, and dropped whenever the coordinates change
+	private NeighborGrid grid = null;
+
+	public CoordinateBlock(Atom[] atoms) {
+		x = new double[atoms.length];
+		y = new double[atoms.length];
+		z = new double[atoms.length];
+		update(atoms);
+	}
+
+	/**
+	 * Creates a copy of {@code other}, for instance as a buffer for {@link #setRotated(CoordinateBlock, double[], double[], double)}.
+	 */
+	public CoordinateBlock(CoordinateBlock other) {
+		x = other.x.clone();
+		y = other.y.clone();
+		z = other.z.clone();
+	}
+
+	/**
+	 * Copies the current coordinates of {@code atoms}, for instance after they have been rotated.
+	 * @param atoms An array of the same length as the one this block was built from
+	 */
+	public void update(Atom[] atoms) {
+		if (atoms.length != x.length) {
+			throw new IllegalArgumentException("Expected " + x.length + " atoms but got " + atoms.length);
+		}
+		for (int i = 0; i < atoms.length; i++) {
+			x[i] = atoms[i].getX();
+			y[i] = atoms[i].getY();
+			z[i] = atoms[i].getZ();
+		}
+		grid = null;
+	}
+
+	/**
+	 * Sets this block to the atoms of {@code source}, rotated by {@code angle}
+	 * about an axis. This is the rotation {@code RotationAxis.rotate} applies,
+	 * but computed directly from the source coordinates, so sampling many
+	 * angles doesn't accumulate rounding error from one step to the next.
+	 * @param source A block of the same size, which may not be this one
+	 * @param axis The direction of the axis, as a unit vector
+	 * @param point A point on the axis
+	 * @param angle The angle in radians, counterclockwise looking down the axis
+	 */
+	public void setRotated(CoordinateBlock source, double[] axis, double[] point, double angle) {
+		if (source.x.length != x.length) {
+			throw new IllegalArgumentException("Expected " + x.length + " atoms but got " + source.x.length);
+		}
+		double ux = axis[0], uy = axis[1], uz = axis[2];
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double com = 1 - cos;
+		// Rodrigues' rotation formula
+		double m00 = com * ux * ux + cos, m01 = com * ux * uy - sin * uz, m02 = com * ux * uz + sin * uy;
+		double m10 = com * ux * uy + sin * uz, m11 = com * uy * uy + cos, m12 = com * uy * uz - sin * ux;
+		double m20 = com * ux * uz - sin * uy, m21 = com * uy * uz + sin * ux, m22 = com * uz * uz + cos;
+		double px = point[0], py = point[1], pz = point[2];
+		for (int i = 0; i < x.length; i++) {
+			double dx = source.x[i] - px;
+			double dy = source.y[i] - py;
+			double dz = source.z[i] - pz;
+			x[i] = m00 * dx + m01 * dy + m02 * dz + px;
+			y[i] = m10 * dx + m11 * dy + m12 * dz + py;
+			z[i] = m20 * dx + m21 * dy + m22 * dz + pz;
+		}
+		grid = null;
+	}
+
+	public int size() {
+		return x.length;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public double getZ(int i) {
+		return z[i];
+	}
+
+	/**
+	 * @return The squared distance between atom i of this block and atom j of {@code other}
+	 */
+	public double getDistanceFast(int i, CoordinateBlock other, int j) {
+		double dx = x[i] - other.x[j];
+		double dy = y[i] - other.y[j];
+		double dz = z[i] - other.z[j];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * @return The distance between atoms i and j of this block
+	 */
+	public double getDistance(int i, int j) {
+		return Math.sqrt(getDistanceFast(i, this, j));
+	}
+
+	/**
+	 * Same as {@code AlignTools.getDiagonalAtK}.
+	 * @return The distances from each atom i to atom i+k
+	 */
+	public double[] getDiagonalAtK(int k) {
+		int n = x.length - k;
+		double[] dist = new double[Math.max(n, 0)];
+		for (int i = 0; i < n; i++) {
+			double dx = x[i] - x[i + k];
+			double dy = y[i] - y[i + k];
+			double dz = z[i] - z[i + k];
+			dist[i] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+		return dist;
+	}
+
+	/**
+	 * For each atom of this block, finds the squared distance to the closest atom of {@code other}, and vice versa.
+	 *
+	 * Larger blocks are searched with a {@link NeighborGrid grid} of each block,
+	 * which is kept until the block is {@link #update(Atom[]) updated}. So when
+	 * one block stays put and the other is rotated step by step, the grid of the
+	 * first is only built once. The distances are the same as an all-pairs search gives.
+	 * @param best1 Filled with the closest squared distance from each atom of this block; must be at least {@link #size()} long
+	 * @param best2 Filled with the closest squared distance from each atom of {@code other}
+	 */
+	public void closestDistancesFast(CoordinateBlock other, double[] best1, double[] best2) {
+		if (x.length < MIN_GRID_SIZE || other.x.length < MIN_GRID_SIZE) {
+			allPairsClosestDistancesFast(other, best1, best2);
+			return;
+		}
+		NeighborGrid grid1 = getGrid();
+		NeighborGrid grid2 = other.getGrid();
+		for (int i = 0; i < x.length; i++) {
+			best1[i] = grid2.closestDistanceFast(x[i], y[i], z[i]);
+		}
+		for (int j = 0; j < other.x.length; j++) {
+			best2[j] = grid1.closestDistanceFast(other.x[j], other.y[j], other.z[j]);
+		}
+	}
+
+	private NeighborGrid getGrid() {
+		if (grid == null) grid = new NeighborGrid(x, y, z);
+		return grid;
+	}
+
+	/**
+	 * Same as {@link #closestDistancesFast(CoordinateBlock, double[], double[])}, measuring every pair of atoms.
+	 */
+	void allPairsClosestDistancesFast(CoordinateBlock other, double[] best1, double[] best2) {
+		int n1 = x.length;
+		int n2 = other.x.length;
+		double[] x2 = other.x;
+		double[] y2 = other.y;
+		double[] z2 = other.z;
+		for (int j = 0; j < n2; j++) {
+			best2[j] = Double.POSITIVE_INFINITY;
+		}
+		for (int i = 0; i < n1; i++) {
+			double xi = x[i];
+			double yi = y[i];
+			double zi = z[i];
+			double best = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < n2; j++) {
+				double dx = xi - x2[j];
+				double dy = yi - y2[j];
+				double dz = zi - z2[j];
+				double dist = dx * dx + dy * dy + dz * dz;
+				if (dist < best) best = dist;
+				if (dist < best2[j]) best2[j] = dist;
+			}
+			best1[i] = best;
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window scores for fragments of a fixed length.
+ *
+ * The fragment matrices used by CE and CE-Symm sum the same intramolecular
+ * distances over and over again for overlapping windows. The methods here
+ * compute each window from the previous one instead, so that a matrix of
+ * n&times;m fragment pairs is built in one pass over the cells rather than
+ * re-summing the whole window for every cell.
+ *
+ * @author dmyersturnbull
+ */
+public class FragmentScores {
+
+	// there won't be an instance of this
+	private FragmentScores() {}
+
+	/**
+	 * Returns the sums of {@code fragmentLength} consecutive values, for each of
+	 * the first {@code nWindows} starting positions.
+	 * That is, {@code sums[i] = values[i] + ... + values[i+fragmentLength-1]}.
+	 * @param values
+	 * @param fragmentLength
+	 * @param nWindows The number of windows to sum; {@code nWindows+fragmentLength-1} must not exceed {@code values.length}
+	 * @return An array of length {@code nWindows}
+	 */
+	public static double[] windowSums(double[] values, int fragmentLength, int nWindows) {
+		double[] sums = new double[Math.max(nWindows, 0)];
+		if (nWindows <= 0) return sums;
+		// prefix sums keep every window independent of the rounding error of the others
+		double[] prefix = new double[nWindows + fragmentLength];
+		for (int i = 0; i < prefix.length - 1; i++) {
+			prefix[i + 1] = prefix[i] + values[i];
+		}
+		for (int i = 0; i < nWindows; i++) {
+			sums[i] = prefix[i + fragmentLength] - prefix[i];
+		}
+		return sums;
+	}
+
+	/**
+	 * Returns the D<sub>k</sub> matrix: the absolute difference between the
+	 * window sums of {@code dist1} starting at i and of {@code dist2} starting at j.
+	 * @param dist1 Distances along the k-th diagonal of the first structure
+	 * @param dist2 Distances along the k-th diagonal of the second structure
+	 * @param fragmentLength
+	 * @param rows
+	 * @param cols
+	 * @param matrix A {@code rows}&times;{@code cols} (or larger) array to fill in place
+	 * @return {@code matrix}
+	 */
+	public static double[][] fillDkMatrix(double[] dist1, double[] dist2, int fragmentLength, int rows, int cols, double[][] matrix) {
+		double[] score1 = windowSums(dist1, fragmentLength, rows);
+		double[] score2 = windowSums(dist2, fragmentLength, cols);
+		for (int i = 0; i < rows; i++) {
+			double[] row = matrix[i];
+			double s1 = score1[i];
+			for (int j = 0; j < cols; j++) {
+				// if the intramolecular distances are very similar
+				// the two scores should be similar, i.e. the difference is close to 0
+				row[j] = Math.abs(s1 - score2[j]);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Calculates the CE fragment similarity matrix: for each pair of fragments of length {@code winSize}
+	 * starting at ise1 and ise2, the average absolute difference between the
+	 * intramolecular distances of residues at least two apart within each fragment.
+	 *
+	 * This gives the same matrix as {@code CECalculator.initSumOfDistances},
+	 * including the value -1 for fragments running off the end of either structure.
+	 * Rather than summing all (winSize-1)(winSize-2)/2 pairs for every cell, each
+	 * diagonal of the matrix is walked once, dropping the pairs that leave the
+	 * window and adding the ones that enter it.
+	 * @param dist1 The intramolecular distance matrix of the first structure
+	 * @param dist2 The intramolecular distance matrix of the second structure
+	 * @param nse1 The length of the first structure
+	 * @param nse2 The length of the second structure
+	 * @param winSize The fragment length
+	 * @param winSizeComb1 The number of distances per fragment, normally (winSize-1)(winSize-2)/2
+	 * @return A new nse1&times;nse2 matrix
+	 */
+	public static double[][] sumOfDistances(double[][] dist1, double[][] dist2, int nse1, int nse2, int winSize, int winSizeComb1) {
+		return sumOfDistances(dist1, dist2, nse1, nse2, winSize, winSizeComb1, null, 0.0);
+	}
+
+	/**
+	 * Selects the cells of a fragment matrix that are worth computing.
+	 */
+	public interface CellFilter {
+		boolean accept(int ise1, int ise2);
+	}
+
+	/**
+	 * Same as {@link #sumOfDistances(double[][], double[][], int, int, int, int)},
+	 * but only sums the cells {@code filter} accepts. Runs of accepted cells along
+	 * a diagonal are still slid over, so a filter that keeps a band around some
+	 * diagonals costs in proportion to the band.
+	 * @param filter The cells to compute, or null for all of them
+	 * @param rejected The value of valid cells the filter rejects
+	 */
+	public static double[][] sumOfDistances(double[][] dist1, double[][] dist2, int nse1, int nse2, int winSize, int winSizeComb1,
+			CellFilter filter, double rejected) {
+
+		double[][] mat = new double[nse1][nse2];
+		for (int ise1 = 0; ise1 < nse1; ise1++) {
+			Arrays.fill(mat[ise1], -1.0);
+		}
+
+		// last valid fragment starts
+		int last1 = nse1 - winSize;
+		int last2 = nse2 - winSize;
+		if (last1 < 0 || last2 < 0) return mat;
+
+		// each diagonal starts either in the first row or in the first column
+		for (int start1 = last1; start1 >= 0; start1--) {
+			sumDiagonal(dist1, dist2, start1, 0, last1, last2, winSize, winSizeComb1, filter, rejected, mat);
+		}
+		for (int start2 = 1; start2 <= last2; start2++) {
+			sumDiagonal(dist1, dist2, 0, start2, last1, last2, winSize, winSizeComb1, filter, rejected, mat);
+		}
+		return mat;
+	}
+
+	/**
+	 * Number of sliding steps after which a window is summed in full again,
+	 * so that rounding error can't build up along long diagonals.
+	 */
+	private static final int RESUM_INTERVAL = 256;
+
+	private static void sumDiagonal(double[][] dist1, double[][] dist2, int ise1, int ise2, int last1, int last2,
+			int winSize, int winSizeComb1, CellFilter filter, double rejected, double[][] mat) {
+
+		double d = 0.0;
+		// whether d holds the window at (ise1, ise2)
+		boolean summed = false;
+		int steps = 0;
+		while (true) {
+			if (filter != null && !filter.accept(ise1, ise2)) {
+				mat[ise1][ise2] = rejected;
+				summed = false;
+			} else {
+				if (!summed || steps == RESUM_INTERVAL) {
+					d = sumWindow(dist1, dist2, ise1, ise2, winSize);
+					summed = true;
+					steps = 0;
+				}
+				// negative values mark invalid cells, so never let rounding produce one
+				mat[ise1][ise2] = (d < 0.0 ? 0.0 : d) / winSizeComb1;
+			}
+			if (ise1 >= last1 || ise2 >= last2) break;
+
+			if (summed) {
+				// slide the window along the diagonal
+				double[] out1 = dist1[ise1];
+				double[] out2 = dist2[ise2];
+				int in1 = ise1 + winSize;
+				int in2 = ise2 + winSize;
+				for (int k = 2; k < winSize; k++) {
+					// pairs starting at the residue that leaves the window
+					d -= Math.abs(out1[ise1 + k] - out2[ise2 + k]);
+					// pairs ending at the residue that enters it
+					d += Math.abs(dist1[in1 - k][in1] - dist2[in2 - k][in2]);
+				}
+				steps++;
+			}
+			ise1++;
+			ise2++;
+		}
+	}
+
+	private static double sumWindow(double[][] dist1, double[][] dist2, int ise1, int ise2, int winSize) {
+		double d = 0.0;
+		// this sums up over the distances of the fragments
+		for (int is1 = 0; is1 < winSize - 2; is1++) {
+			for (int is2 = is1 + 2; is2 < winSize; is2++) {
+				d += Math.abs(dist1[ise1 + is1][ise1 + is2] - dist2[ise2 + is1][ise2 + is2]);
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,106 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.biojava.nbio.structure.Atom;
+
+/**
+ * The intramolecular distances of one array of atoms, computed once and shared
+ * by everything that analyzes the same structure.
+ *
+ * Distances are stored by diagonal, {@code d(i,i+k)}, and computed lazily: asking
+ * for a distance with sequence separation k computes every diagonal up to k that
+ * isn't known yet. So consumers that only need short-range distances, such as
+ * the census prescreen and {@code SymmetryTools.getDkMatrix}, never pay for
+ * the full matrix.
+ *
+ * Caches are looked up by the identity of the atom array and dropped when the array
+ * is no longer referenced, so a census job's cache lives as long as its atoms. A
+ * cache whose coordinates no longer match the array, because its atoms have been
+ * moved, is replaced on lookup.
+ *
+ * @author dmyersturnbull
+ */
+public class IntraDistanceCache {
+
+	private static final Map<Atom[], IntraDistanceCache> caches = Collections.synchronizedMap(new WeakHashMap<Atom[], IntraDistanceCache>());
+
+	private final CoordinateBlock coords;
+	private final double[][] diagonals;
+	// diagonals 0 through band are known
+	private volatile int band;
+
+	/**
+	 * @return The cache for {@code ca}, created if needed
+	 */
+	public static IntraDistanceCache forAtoms(Atom[] ca) {
+		synchronized (caches) {
+			IntraDistanceCache cache = caches.get(ca);
+			if (cache == null || !cache.matches(ca)) {
+				cache = new IntraDistanceCache(ca);
+				caches.put(ca, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Drops the cache for {@code ca}.
+	 */
+	public static void forget(Atom[] ca) {
+		caches.remove(ca);
+	}
+
+	/**
+	 * Creates a cache that isn't shared.
+	 */
+	public IntraDistanceCache(Atom[] ca) {
+		coords = new CoordinateBlock(ca);
+		diagonals = new double[ca.length][];
+		if (ca.length > 0) diagonals[0] = new double[ca.length];
+		band = 0;
+	}
+
+	public int size() {
+		return diagonals.length;
+	}
+
+	/**
+	 * @return The distance between atoms i and j
+	 */
+	public double getDistance(int i, int j) {
+		int k = Math.abs(i - j);
+		if (k > band) extend(k);
+		return diagonals[k][Math.min(i, j)];
+	}
+
+	/**
+	 * Same as {@code AlignTools.getDiagonalAtK}, without recomputing it.
+	 * @return The distances from each atom i to atom i+k. The array is shared and must not be modified.
+	 */
+	public double[] getDiagonalAtK(int k) {
+		if (k >= diagonals.length) return new double[0];
+		if (k > band) extend(k);
+		return diagonals[k];
+	}
+
+	private boolean matches(Atom[] ca) {
+		if (ca.length != coords.size()) return false;
+		for (int i = 0; i < ca.length; i++) {
+			if (ca[i].getX() != coords.getX(i) || ca[i].getY() != coords.getY(i) || ca[i].getZ() != coords.getZ(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void extend(int k) {
+		for (int d = band + 1; d <= k; d++) {
+			diagonals[d] = coords.getDiagonalAtK(d);
+		}
+		if (k > band) band = k;
+	}
+
+}
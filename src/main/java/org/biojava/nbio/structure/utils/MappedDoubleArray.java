@@ -0,0 +1,181 @@
+package org.biojava.nbio.structure.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A large array of doubles kept in a scratch file rather than on the heap.
+ *
+ * The file is split into fixed-size tiles, which are memory-mapped on demand.
+ * Only the most recently used tiles are kept; Java has no way to unmap a
+ * buffer, so the mapping of a dropped tile stays until its buffer is garbage
+ * collected. The mappings don't take heap space, so the array can be much
+ * larger than the heap, and the operating system decides which parts stay in
+ * physical memory. Reading or writing whole runs of the array at once is much
+ * faster than single elements.
+ *
+ * Instances are not thread-safe. The scratch file is deleted on {@link #close()}.
+ *
+ * @author dmyersturnbull
+ */
+public class MappedDoubleArray implements Closeable {
+
+	/**
+	 * The default number of doubles per tile (4 MB).
+	 */
+	public static final int DEFAULT_TILE_SIZE = 1 << 19;
+
+	/**
+	 * The default number of tiles kept mapped.
+	 */
+	public static final int DEFAULT_MAX_TILES = 16;
+
+	private final long length;
+	private final int tileSize;
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final Map<Long, DoubleBuffer> tiles;
+
+	// the last tile used, to skip the map lookup while walking a row
+	private long lastTile = -1;
+	private DoubleBuffer lastBuffer = null;
+
+	/**
+	 * Creates an array of zeros in a new scratch file, with default tiles.
+	 * @param length The number of elements
+	 * @param directory The directory for the scratch file, or null for the system default
+	 * @throws IOException If the scratch file can't be created
+	 */
+	public MappedDoubleArray(long length, File directory) throws IOException {
+		this(length, directory, DEFAULT_TILE_SIZE, DEFAULT_MAX_TILES);
+	}
+
+	/**
+	 * Creates an array of zeros in a new scratch file.
+	 * @param length The number of elements
+	 * @param directory The directory for the scratch file, or null for the system default
+	 * @param tileSize The number of elements per tile
+	 * @param maxTiles The number of tiles to keep mapped
+	 * @throws IOException If the scratch file can't be created
+	 */
+	public MappedDoubleArray(long length, File directory, int tileSize, final int maxTiles) throws IOException {
+		if (length < 0) throw new IllegalArgumentException("Negative length " + length);
+		if (tileSize < 1 || maxTiles < 1) throw new IllegalArgumentException("Tiles need a positive size and count");
+		this.length = length;
+		this.tileSize = tileSize;
+		file = File.createTempFile("symmetry", ".tiles", directory);
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length * 8);
+		channel = raf.getChannel();
+		tiles = new LinkedHashMap<Long, DoubleBuffer>(maxTiles * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, DoubleBuffer> eldest) {
+				// the mapping is released once the buffer is garbage collected
+				return size() > maxTiles;
+			}
+		};
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public double get(long index) {
+		return tile(index).get((int) (index % tileSize));
+	}
+
+	public void set(long index, double value) {
+		tile(index).put((int) (index % tileSize), value);
+	}
+
+	/**
+	 * Copies {@code count} elements starting at {@code index} into {@code target[start...]}.
+	 */
+	public void get(long index, double[] target, int start, int count) {
+		while (count > 0) {
+			int offset = (int) (index % tileSize);
+			int n = Math.min(count, tileSize - offset);
+			DoubleBuffer buffer = tile(index).duplicate();
+			buffer.position(offset);
+			buffer.get(target, start, n);
+			index += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Copies {@code count} elements from {@code source[start...]} into the array starting at {@code index}.
+	 */
+	public void set(long index, double[] source, int start, int count) {
+		while (count > 0) {
+			int offset = (int) (index % tileSize);
+			int n = Math.min(count, tileSize - offset);
+			DoubleBuffer buffer = tile(index).duplicate();
+			buffer.position(offset);
+			buffer.put(source, start, n);
+			index += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * @return Whether the tile holding {@code index} is currently mapped
+	 */
+	boolean isMapped(long index) {
+		return tiles.containsKey(index / tileSize);
+	}
+
+	private DoubleBuffer tile(long index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of " + length);
+		}
+		long t = index / tileSize;
+		if (t == lastTile) return lastBuffer;
+		DoubleBuffer buffer = tiles.get(t);
+		if (buffer == null) {
+			long first = t * tileSize;
+			long size = Math.min(tileSize, length - first);
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, first * 8, size * 8)
+						.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not map tile " + t + " of " + file, e);
+			}
+			tiles.put(t, buffer);
+		}
+		lastTile = t;
+		lastBuffer = buffer;
+		return buffer;
+	}
+
+	/**
+	 * Drops all tiles, closes the scratch file and deletes it. The tiles stay
+	 * mapped until they are garbage collected, and on some platforms, such as
+	 * Windows, the file can't be deleted until then; it is deleted on exit instead.
+	 */
+	@Override
+	public void close() throws IOException {
+		tiles.clear();
+		lastTile = -1;
+		lastBuffer = null;
+		try {
+			channel.close();
+			raf.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.biojava.nbio.structure.utils;
+
+/**
+ * A uniform grid of cells over a set of points, for finding the closest point
+ * to a query without measuring the distance to every point.
+ *
+ * Cells are sized to hold a couple of points each on average.
+ * A query visits cells in shells of growing radius around its own cell, and
+ * stops once no unvisited cell can hold a closer point. The closest squared
+ * distance is computed with the same arithmetic as a brute-force search over
+ * every point, so it is exactly the same value.
+ *
+ * @author dmyersturnbull
+ */
+class NeighborGrid {
+
+	// slack for rounding when deciding that no unvisited cell can hold a closer point
+	private static final double EPSILON = 1e-6;
+
+	// points per cell of the bounding box; a protein fills about half of its box
+	private static final double POINTS_PER_CELL = 2;
+
+	private final double minX;
+	private final double minY;
+	private final double minZ;
+	private final double cellSize;
+	private final int nx;
+	private final int ny;
+	private final int nz;
+
+	// the points of cell c are cellStart[c] to cellStart[c+1]-1 of xs, ys and zs
+	private final int[] cellStart;
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+
+	NeighborGrid(double[] x, double[] y, double[] z) {
+		int n = x.length;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			minZ = Math.min(minZ, z[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			maxZ = Math.max(maxZ, z[i]);
+		}
+		if (n == 0) {
+			minX = minY = minZ = maxX = maxY = maxZ = 0;
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+
+		// flat or linear sets of points still get cells of a sensible size
+		double extentX = Math.max(maxX - minX, 1);
+		double extentY = Math.max(maxY - minY, 1);
+		double extentZ = Math.max(maxZ - minZ, 1);
+		cellSize = Math.cbrt(POINTS_PER_CELL * extentX * extentY * extentZ / Math.max(n, 1));
+		nx = (int) Math.floor((maxX - minX) / cellSize) + 1;
+		ny = (int) Math.floor((maxY - minY) / cellSize) + 1;
+		nz = (int) Math.floor((maxZ - minZ) / cellSize) + 1;
+
+		// counting sort of the points by cell
+		int[] cells = new int[n];
+		cellStart = new int[nx * ny * nz + 1];
+		for (int i = 0; i < n; i++) {
+			int gx = Math.min(cell(x[i], minX), nx - 1);
+			int gy = Math.min(cell(y[i], minY), ny - 1);
+			int gz = Math.min(cell(z[i], minZ), nz - 1);
+			cells[i] = (gx * ny + gy) * nz + gz;
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < cellStart.length - 1; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] next = new int[cellStart.length - 1];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		xs = new double[n];
+		ys = new double[n];
+		zs = new double[n];
+		for (int i = 0; i < n; i++) {
+			int pos = next[cells[i]]++;
+			xs[pos] = x[i];
+			ys[pos] = y[i];
+			zs[pos] = z[i];
+		}
+	}
+
+	private int cell(double coord, double min) {
+		return (int) Math.floor((coord - min) / cellSize);
+	}
+
+	/**
+	 * @return The squared distance from (px,py,pz) to the closest point, or infinity if there are none
+	 */
+	double closestDistanceFast(double px, double py, double pz) {
+		if (xs.length == 0) return Double.POSITIVE_INFINITY;
+
+		int cx = cell(px, minX);
+		int cy = cell(py, minY);
+		int cz = cell(pz, minZ);
+
+		// how far the query is from the nearest face of its own cell
+		double margin = Math.min(faceDistance(px, minX, cx), Math.min(faceDistance(py, minY, cy), faceDistance(pz, minZ, cz)));
+
+		double best = Double.POSITIVE_INFINITY;
+		// shells closer than the grid are empty
+		int r = Math.max(gap(cx, nx), Math.max(gap(cy, ny), gap(cz, nz)));
+		while (true) {
+			best = scanShell(px, py, pz, cx, cy, cz, r, best);
+
+			// every point outside this shell is at least this far away
+			double bound = r * cellSize + margin - EPSILON;
+			if (bound > 0 && best <= bound * bound) return best;
+			if (cx - r <= 0 && cx + r >= nx - 1 && cy - r <= 0 && cy + r >= ny - 1 && cz - r <= 0 && cz + r >= nz - 1) {
+				return best;
+			}
+			r++;
+		}
+	}
+
+	/**
+	 * @return The distance along one axis from {@code coord} to the nearer face of its cell c
+	 */
+	private double faceDistance(double coord, double min, int c) {
+		double offset = coord - min - c * cellSize;
+		return Math.max(Math.min(offset, cellSize - offset), 0);
+	}
+
+	/**
+	 * @return The number of cells between cell c and the range 0 to n-1
+	 */
+	private static int gap(int c, int n) {
+		return c < 0 ? -c : c >= n ? c - n + 1 : 0;
+	}
+
+	/**
+	 * Measures the points in the cells exactly r cells from (cx,cy,cz) along some axis.
+	 */
+	private double scanShell(double px, double py, double pz, int cx, int cy, int cz, int r, double best) {
+		int xlo = Math.max(cx - r, 0), xhi = Math.min(cx + r, nx - 1);
+		int ylo = Math.max(cy - r, 0), yhi = Math.min(cy + r, ny - 1);
+		int zlo = Math.max(cz - r, 0), zhi = Math.min(cz + r, nz - 1);
+		for (int gx = xlo; gx <= xhi; gx++) {
+			boolean xFace = gx == cx - r || gx == cx + r;
+			for (int gy = ylo; gy <= yhi; gy++) {
+				int column = (gx * ny + gy) * nz;
+				if (xFace || gy == cy - r || gy == cy + r) {
+					// on a face, so the whole column is in the shell
+					if (zlo <= zhi) best = scanCells(px, py, pz, column + zlo, column + zhi, best);
+				} else {
+					// only the ends of the column are in the shell
+					if (cz - r >= 0 && cz - r < nz) best = scanCells(px, py, pz, column + cz - r, column + cz - r, best);
+					if (cz + r >= 0 && cz + r < nz) best = scanCells(px, py, pz, column + cz + r, column + cz + r, best);
+				}
+			}
+		}
+		return best;
+	}
+
+	private double scanCells(double px, double py, double pz, int firstCell, int lastCell, double best) {
+		for (int pos = cellStart[firstCell]; pos < cellStart[lastCell + 1]; pos++) {
+			double dx = px - xs[pos];
+			double dy = py - ys[pos];
+			double dz = pz - zs[pos];
+			double dist = dx * dx + dy * dy + dz * dz;
+			if (dist < best) best = dist;
+		}
+		return best;
+	}
+
+}
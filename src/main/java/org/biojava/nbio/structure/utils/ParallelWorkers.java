@@ -0,0 +1,109 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several copies of a worker concurrently within a single alignment.
+ *
+ * Workers are expected to pull their work from a shared queue or counter.
+ * The calling thread always runs one copy itself, and copies that have not
+ * started by the time it finishes are cancelled rather than waited for. So
+ * callers make progress even when every pool thread is busy, including when
+ * they are themselves running on a pool thread (for instance in a census job).
+ *
+ * @author dmyersturnbull
+ */
+public class ParallelWorkers {
+
+	private static ExecutorService pool;
+
+	// there won't be an instance of this
+	private ParallelWorkers() {}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			pool = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "symmetry-worker-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * @return The number of threads to use when {@code requested} is not positive
+	 */
+	public static int getDefaultThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Runs {@code worker} on up to {@code nWorkers} threads, one of which is the calling thread.
+	 * Returns once every copy that started has finished.
+	 * @param nWorkers The maximum number of concurrent copies; if less than 1, the number of processors
+	 * @param worker A task that pulls work until none is left; it must be safe to run concurrently with itself
+	 * @throws RuntimeException If any copy of the worker threw one
+	 */
+	public static void run(int nWorkers, final Runnable worker) {
+		if (nWorkers < 1) nWorkers = getDefaultThreads();
+
+		List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>(nWorkers - 1);
+		List<Future<?>> futures = new ArrayList<Future<?>>(nWorkers - 1);
+		for (int i = 1; i < nWorkers; i++) {
+			final AtomicBoolean claim = new AtomicBoolean();
+			claims.add(claim);
+			futures.add(getPool().submit(new Runnable() {
+				@Override
+				public void run() {
+					if (claim.compareAndSet(false, true)) worker.run();
+				}
+			}));
+		}
+
+		RuntimeException failure = null;
+		try {
+			worker.run();
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			Future<?> future = futures.get(i);
+			// copies that never started have nothing left to do; cancel() alone
+			// can't tell, since it also succeeds on a copy that is still running
+			if (claims.get(i).compareAndSet(false, true)) {
+				future.cancel(false);
+				continue;
+			}
+			try {
+				future.get();
+			} catch (CancellationException e) {
+				// fine
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) failure = new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					Throwable cause = e.getCause();
+					failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+				}
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.biojava.nbio.structure.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.Calc;
+import org.biojava.nbio.structure.SVDSuperimposer;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.jama.Matrix;
+
+/**
+ * Remembers the superposition of the optimal alignment of each {@link AFPChain},
+ * so that the TM-score, RMSD, rotation and shift are computed once however often
+ * they are asked for.
+ *
+ * An entry is only reused while the aligned atoms still have the same coordinates
+ * and the shorter structure has the same length, so it is recomputed whenever
+ * {@code optAln} changes, or when the same alignment is scored against other atoms.
+ * TM-scores are computed exactly as {@code AFPChainScorer.getTMScore} computes them.
+ *
+ * @author dmyersturnbull
+ */
+public class SuperpositionCache {
+
+	private static final Map<AFPChain, Superposition> cache = Collections.synchronizedMap(new WeakHashMap<AFPChain, Superposition>());
+
+	// there won't be an instance of this
+	private SuperpositionCache() {}
+
+	/**
+	 * The superposition of the aligned atoms of the second structure onto those of the first.
+	 */
+	public static class Superposition {
+
+		private final double[] coords1;
+		private final double[] coords2;
+		private final int minLength;
+		private final double tmScore;
+		private final double rmsd;
+		private final Matrix rotation;
+		private final Atom shift;
+
+		private Superposition(double[] coords1, double[] coords2, int minLength,
+				double tmScore, double rmsd, Matrix rotation, Atom shift) {
+			this.coords1 = coords1;
+			this.coords2 = coords2;
+			this.minLength = minLength;
+			this.tmScore = tmScore;
+			this.rmsd = rmsd;
+			this.rotation = rotation;
+			this.shift = shift;
+		}
+
+		/**
+		 * @return The TM-score, normalized by the length of the shorter structure; -1 for an empty alignment
+		 */
+		public double getTMScore() {
+			return tmScore;
+		}
+
+		/**
+		 * @return The RMSD of the superimposed aligned atoms; -1 for an empty alignment
+		 */
+		public double getRmsd() {
+			return rmsd;
+		}
+
+		/**
+		 * @return A copy of the rotation, or null for an empty alignment
+		 */
+		public Matrix getRotation() {
+			return rotation == null ? null : rotation.copy();
+		}
+
+		/**
+		 * @return A copy of the shift, or null for an empty alignment
+		 */
+		public Atom getShift() {
+			return shift == null ? null : (Atom) shift.clone();
+		}
+
+		private boolean matches(double[] coords1, double[] coords2, int minLength) {
+			return this.minLength == minLength
+					&& Arrays.equals(this.coords1, coords1)
+					&& Arrays.equals(this.coords2, coords2);
+		}
+	}
+
+	/**
+	 * @return The TM-score of {@code afpChain}, as {@code AFPChainScorer.getTMScore} would compute it
+	 */
+	public static double getTMScore(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+		return get(afpChain, ca1, ca2).getTMScore();
+	}
+
+	/**
+	 * @return The superposition of the optimal alignment of {@code afpChain}, computed if it isn't known yet
+	 */
+	public static Superposition get(AFPChain afpChain, Atom[] ca1, Atom[] ca2) throws StructureException {
+
+		Atom[][] aligned = getAlignedAtoms(afpChain, ca1, ca2);
+		double[] coords1 = toCoordinates(aligned[0]);
+		double[] coords2 = toCoordinates(aligned[1]);
+		int minLength = Math.min(ca1.length, ca2.length);
+
+		Superposition known = cache.get(afpChain);
+		if (known != null && known.matches(coords1, coords2, minLength)) return known;
+
+		Superposition superposition = superimpose(aligned[0], aligned[1], coords1, coords2, ca1.length, ca2.length);
+		cache.put(afpChain, superposition);
+		return superposition;
+	}
+
+	/**
+	 * Forgets the superposition of {@code afpChain}.
+	 */
+	public static void invalidate(AFPChain afpChain) {
+		cache.remove(afpChain);
+	}
+
+	private static Atom[][] getAlignedAtoms(AFPChain afpChain, Atom[] ca1, Atom[] ca2) {
+		int[][][] optAln = afpChain.getOptAln();
+		int[] optLen = afpChain.getOptLen();
+		int n = 0;
+		if (optAln != null) {
+			for (int block = 0; block < afpChain.getBlockNum(); block++) {
+				n += optLen[block];
+			}
+		}
+		Atom[] aligned1 = new Atom[n];
+		Atom[] aligned2 = new Atom[n];
+		int pos = 0;
+		for (int block = 0; pos < n; block++) {
+			for (int i = 0; i < optLen[block]; i++) {
+				aligned1[pos] = ca1[optAln[block][0][i]];
+				aligned2[pos] = ca2[optAln[block][1][i]];
+				pos++;
+			}
+		}
+		return new Atom[][] {aligned1, aligned2};
+	}
+
+	private static double[] toCoordinates(Atom[] atoms) {
+		double[] coords = new double[atoms.length * 3];
+		for (int i = 0; i < atoms.length; i++) {
+			coords[3 * i] = atoms[i].getX();
+			coords[3 * i + 1] = atoms[i].getY();
+			coords[3 * i + 2] = atoms[i].getZ();
+		}
+		return coords;
+	}
+
+	private static Superposition superimpose(Atom[] aligned1, Atom[] aligned2, double[] coords1, double[] coords2,
+			int length1, int length2) throws StructureException {
+
+		int minLength = Math.min(length1, length2);
+		if (aligned1.length == 0) {
+			return new Superposition(coords1, coords2, minLength, -1, -1, null, null);
+		}
+
+		// superimpose copies, so that the input atoms don't move
+		Atom[] moved = new Atom[aligned2.length];
+		for (int i = 0; i < moved.length; i++) {
+			moved[i] = (Atom) aligned2[i].clone();
+		}
+		SVDSuperimposer svd = new SVDSuperimposer(aligned1, moved);
+		Matrix rotation = svd.getRotation();
+		Atom shift = svd.getTranslation();
+		for (Atom a : moved) {
+			Calc.rotate(a, rotation);
+			Calc.shift(a, shift);
+		}
+		double rmsd = SVDSuperimposer.getRMS(aligned1, moved);
+		double tmScore = SVDSuperimposer.getTMScore(aligned1, moved, length1, length2);
+		return new Superposition(coords1, coords2, minLength, tmScore, rmsd, rotation, shift);
+	}
+
+}
@@ -8,8 +8,9 @@ import org.biojava.nbio.structure.Group;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.ce.CECalculator;
-import org.biojava.nbio.structure.align.helper.AlignTools;
 import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.symm.CeSymmMatrix;
+import org.biojava.nbio.structure.align.symm.CeSymmWorkspace;
 import org.biojava.nbio.structure.gui.ScaleableMatrixPanel;
 import org.biojava.nbio.structure.jama.Matrix;
 
@@ -60,25 +61,24 @@ public class SymmetryTools {
 			origM =   new Matrix( calculator.getMatMatrix());
 
 		// symmetry hack, disable main diagonal
+		// only cells within blankWindowSize of either copy of the diagonal are touched
 
+		int breakPoint = ca2.length/2; // other side
 		for ( int i = 0 ; i< rows; i++){
-			for ( int j = 0 ; j < cols ; j++){
+			int start = Math.max(i-blankWindowSize+1, 0);
+			int end = Math.min(i+blankWindowSize-1, cols-1);
+			for ( int j = start ; j <= end ; j++){
 				int diff = Math.abs(i-j);
-
 				double resetVal = getResetVal(origM.get(i, j), diff, gradientPolyCoeff, gradientExpCoeff);
+				origM.set(i,j, origM.get(i, j) + resetVal);
+			}
 
-				if ( diff < blankWindowSize ){
-					origM.set(i,j, origM.get(i, j) + resetVal);
-
-				}
-				int diff2 = Math.abs(i-(j-ca2.length/2)); // other side
-
+			start = Math.max(i+breakPoint-blankWindowSize+1, 0);
+			end = Math.min(i+breakPoint+blankWindowSize-1, cols-1);
+			for ( int j = start ; j <= end ; j++){
+				int diff2 = Math.abs(i-(j-breakPoint));
 				double resetVal2 = getResetVal(origM.get(i, j), diff2, gradientPolyCoeff, gradientExpCoeff);
-
-				if ( diff2 < blankWindowSize ){
-					origM.set(i,j, origM.get(i, j) + resetVal2);
-
-				}
+				origM.set(i,j, origM.get(i, j) + resetVal2);
 			}
 		}
 		return origM;
@@ -158,23 +158,7 @@ public class SymmetryTools {
 			double[] dist1, double[] dist2, int rows, int cols) {
 		Matrix diffDistMax =  Matrix.identity(ca1.length, ca2.length);
 
-		for ( int i = 0 ; i< rows; i++){
-			double score1 = 0;
-			for ( int x=0 ; x < fragmentLength ; x++){
-				score1 += dist1[i+x];
-			}
-			for ( int j = 0 ; j < cols ; j++){
-				double score2 = 0;
-				for ( int y=0 ; y < fragmentLength ; y++){
-					score2 += dist2[j+y];
-				}
-
-				// if the intramolecular distances are very similar
-				// the two scores should be similar, i.e. the difference is close to 0
-				diffDistMax.set(i,j, Math.abs(score1-score2));
-			}
-		}
-
+		FragmentScores.fillDkMatrix(dist1, dist2, fragmentLength, rows, cols, diffDistMax.getArray());
 
 		// symmetry hack, disable main diagonal
 
@@ -206,6 +190,101 @@ public class SymmetryTools {
 		return grayOutCEOrig(ca2, rows, cols, calculator, origM, blankWindowSize, new double[] {Integer.MIN_VALUE}, 0.0);
 	}
 
+	/**
+	 * Like {@link #blankOutCEOrig(Atom[], int, int, CECalculator, Matrix, int)},
+	 * but records the blanked cells in the mask of {@code origM} rather than
+	 * overwriting its scores.
+	 * @param origM The matrix to mask. If null, it is created from {@link CECalculator#getMatMatrix()}.
+	 * @return origM
+	 */
+	public static CeSymmMatrix blankOutCEOrig(Atom[] ca2, int rows, int cols,
+			CECalculator calculator, CeSymmMatrix origM, int blankWindowSize) {
+
+		if ( origM == null)
+			origM = new CeSymmMatrix(calculator.getMatMatrix());
+
+		// symmetry hack, disable main diagonal and its copy in the other half
+		int breakPoint = ca2.length/2;
+		for ( int i = 0 ; i< rows; i++){
+			origM.blankRow(i, Math.max(i-blankWindowSize+1, 0), Math.min(i+blankWindowSize, cols));
+			origM.blankRow(i, Math.max(i+breakPoint-blankWindowSize+1, 0), Math.min(i+breakPoint+blankWindowSize, cols));
+		}
+		return origM;
+	}
+
+	/**
+	 * Like {@link #blankOutPreviousAlignment(AFPChain, Atom[], int, int, CECalculator, Matrix, int)},
+	 * but records the blanked cells in the mask of {@code max} rather than
+	 * overwriting its scores, so that no copy of the matrix is needed per alternative.
+	 * @param max The matrix to mask. If null, it is created from {@link CECalculator#getMatMatrix()}.
+	 * @return max
+	 */
+	public static CeSymmMatrix blankOutPreviousAlignment(AFPChain afpChain, Atom[] ca2,
+			int rows, int cols, CECalculator calculator, CeSymmMatrix max, int blankWindowSize) {
+
+		max = blankOutCEOrig(ca2, rows, cols, calculator, max, blankWindowSize);
+
+		double[][] dist1 = calculator.getDist1();
+		double[][] dist2 = calculator.getDist2();
+
+		int[][][] optAln = afpChain.getOptAln();
+		int blockNum = afpChain.getBlockNum();
+
+		int[] optLen = afpChain.getOptLen();
+
+		// ca2 is circularly permutated
+		int breakPoint = ca2.length / 2;
+		for (int bk = 0; bk < blockNum; bk++)       {
+
+			for ( int i=0;i< optLen[bk];i++){
+				int pos1 = optAln[bk][0][i];
+				int pos2 = optAln[bk][1][i];
+
+				int dist = blankWindowSize/2 ;
+				int start1 = Math.max(pos1-dist,0);
+				int start2 = Math.max(pos2-dist,0);
+				int end1 = Math.min(pos1+dist, rows-1);
+				int end2 = Math.min(pos2+dist, cols-1);
+
+				for ( int i1 = start1; i1< end1 ; i1++){
+
+					for ( int k=0; k < blankWindowSize/2 ; k ++){
+						if ( i1-k >= 0) {
+							blankSelfDistance(dist1, i1-k, max);
+						} else if ( i1+k < rows) {
+							blankSelfDistance(dist1, i1+k, max);
+						}
+					}
+
+					for ( int j2 = start2 ; j2 < end2 ; j2++){
+						max.blank(i1, j2);
+						if ( j2 < breakPoint) {
+							max.blank(i1, j2+breakPoint);
+						} else {
+							max.blank(i1, j2-breakPoint);
+						}
+						for ( int k=0; k <blankWindowSize/2 ; k ++){
+							if ( j2-k >=0) {
+								blankSelfDistance(dist2, j2-k, max);
+							} else if ( j2+k < cols) {
+								blankSelfDistance(dist2, j2+k, max);
+							}
+						}
+					}
+				}
+
+			}
+		}
+		calculator.setDist1(dist1);
+		calculator.setDist2(dist2);
+		return max;
+	}
+
+	private static void blankSelfDistance(double[][] dist, int x, CeSymmMatrix max) {
+		double score = x < max.getRowDimension() && x < max.getColumnDimension() ? max.get(x, x) : 0;
+		dist[x][x] = score + CeSymmMatrix.BLANK_PENALTY;
+	}
+
 	public static Atom[] cloneAtoms(Atom[] ca2) throws StructureException{
 		// we don't want to rotate input atoms, do we?
 		Atom[] ca2clone = new Atom[ca2.length];
@@ -222,10 +301,33 @@ public class SymmetryTools {
 		return ca2clone;
 	}
 
+	/**
+	 * Like {@link #cloneAtoms(Atom[])}, but reuses the clones this thread last made of
+	 * the same array, resetting their coordinates instead of cloning every group again.
+	 * @param ca2 The atoms to copy
+	 * @param workspace The workspace of the calling thread
+	 * @return Copies of {@code ca2} with its current coordinates
+	 */
+	public static Atom[] cloneAtoms(Atom[] ca2, CeSymmWorkspace workspace) throws StructureException{
+		Atom[] ca2clone = workspace.getClones(ca2);
+		if (ca2clone == null) {
+			ca2clone = cloneAtoms(ca2);
+			workspace.setClones(ca2, ca2clone);
+			return ca2clone;
+		}
+		for (int i = 0; i < ca2.length; i++) {
+			ca2clone[i].setX(ca2[i].getX());
+			ca2clone[i].setY(ca2[i].getY());
+			ca2clone[i].setZ(ca2[i].getZ());
+		}
+		return ca2clone;
+	}
+
 	public static Matrix getDkMatrix(Atom[] ca1, Atom[] ca2, int k, int fragmentLength) {
-		double[] dist1 = AlignTools.getDiagonalAtK(ca1, k);
+		// the diagonals are shared with anything else analyzing the same atoms
+		double[] dist1 = IntraDistanceCache.forAtoms(ca1).getDiagonalAtK(k);
 
-		double[] dist2 = AlignTools.getDiagonalAtK(ca2, k);
+		double[] dist2 = IntraDistanceCache.forAtoms(ca2).getDiagonalAtK(k);
 
 		int rows = ca1.length - fragmentLength - k + 1;
 		int cols = ca2.length - fragmentLength - k + 1;
@@ -235,22 +337,27 @@ public class SymmetryTools {
 
 		Matrix m2 = new Matrix(rows,cols); 
 
-		for ( int i = 0 ; i< rows; i++){
-			double score1 = 0;
-			for ( int x=0 ; x < fragmentLength ; x++){
-				score1 += dist1[i+x];
-			}
-			for ( int j = 0 ; j < cols ; j++){
-				double score2 = 0;
-				for ( int y=0 ; y < fragmentLength ; y++){
-					score2 += dist2[j+y];
-				}	
-
-				// if the intramolecular distances are very similar
-				// the two scores should be similar, i.e. the difference is close to 0
-				m2.set(i,j, Math.abs(score1-score2));
-			}
-		}
+		FragmentScores.fillDkMatrix(dist1, dist2, fragmentLength, rows, cols, m2.getArray());
+
+		return m2;
+	}
+
+	/**
+	 * Same as {@link #getDkMatrix(Atom[], Atom[], int, int)}, reading the
+	 * coordinates from contiguous arrays.
+	 */
+	public static Matrix getDkMatrix(CoordinateBlock ca1, CoordinateBlock ca2, int k, int fragmentLength) {
+		double[] dist1 = ca1.getDiagonalAtK(k);
+
+		double[] dist2 = ca2.getDiagonalAtK(k);
+
+		int rows = ca1.size() - fragmentLength - k + 1;
+		int cols = ca2.size() - fragmentLength - k + 1;
+
+		Matrix m2 = new Matrix(rows,cols); 
+
+		FragmentScores.fillDkMatrix(dist1, dist2, fragmentLength, rows, cols, m2.getArray());
+
 		return m2;
 	}
 
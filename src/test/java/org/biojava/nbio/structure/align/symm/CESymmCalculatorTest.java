@@ -0,0 +1,149 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.*;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Tests that the parallel parts of {@link CESymmCalculator} give the same
+ * alignments as the serial ones.
+ *
+ * @author dmyersturnbull
+ */
+public class CESymmCalculatorTest {
+
+	@Test
+	public void testParallelSeedScan() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(3, 40);
+		for (double minAngle : new double[] {CESymmCalculator.MIN_ANGLE, 0}) {
+			AFPChain serial = align(ca, minAngle, 1, 1);
+			AFPChain parallel = align(ca, minAngle, 4, 1);
+			assertFalse("Nothing aligned with minAngle " + minAngle, serial.getOptLength() == 0);
+			assertAlignmentEquals("minAngle " + minAngle, serial, parallel);
+		}
+	}
+
+	/**
+	 * The same serial trace, followed by a serial and a parallel choice among
+	 * its candidate traces, should end with the same alignment.
+	 */
+	@Test
+	public void testParallelCandidates() throws StructureException {
+		// several repeats give several equally long candidate traces
+		Atom[] ca = SymmetricChains.cyclic(4, 30);
+		for (double minAngle : new double[] {CESymmCalculator.MIN_ANGLE, 0}) {
+			AFPChain serial = align(ca, minAngle, 1, 1);
+			AFPChain parallel = align(ca, minAngle, 1, 4);
+			assertFalse("Nothing aligned with minAngle " + minAngle, serial.getOptLength() == 0);
+			assertAlignmentEquals("minAngle " + minAngle, serial, parallel);
+		}
+	}
+
+	/**
+	 * With more than one thread CeSymm traces with CESymmCalculator, whose
+	 * result shouldn't depend on how the seeds are split among the threads.
+	 */
+	@Test
+	public void testCeSymmThreads() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(3, 40);
+		CESymmParameters params = new CESymmParameters();
+		params.setThreads(2);
+		AFPChain two = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), params);
+
+		params = new CESymmParameters();
+		params.setThreads(4);
+		AFPChain four = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), params);
+
+		assertFalse(two.getOptLength() == 0);
+		assertAlignmentEquals("CeSymm", two, four);
+	}
+
+	/**
+	 * A band should only change the cells outside of it, which read as blanked out.
+	 */
+	@Test
+	public void testBand() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(3, 40);
+		int n = ca.length;
+		int width = 10;
+		int[] offsets = new int[n];
+		for (int i = 0; i < n; i++) offsets[i] = i < n / 2 ? 40 : 80;
+
+		double[][] full = extract(ca, null, width);
+		double[][] banded = extract(ca, offsets, width);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < 2 * n; j++) {
+				int d = Math.abs(((j - i) % n + n) % n - offsets[i]);
+				if (full[i][j] < 0 || Math.min(d, n - d) <= width) {
+					assertEquals(i + "," + j, full[i][j], banded[i][j], 0.0);
+				} else {
+					assertEquals(i + "," + j, CeSymmMatrix.BLANK_PENALTY, banded[i][j], 0.0);
+				}
+			}
+		}
+	}
+
+	private static double[][] extract(Atom[] ca, int[] offsets, int width) throws StructureException {
+		CESymmCalculator calculator = new CESymmCalculator(new CESymmParameters());
+		calculator.setBand(offsets, width, ca.length);
+		Atom[] ca2 = StructureTools.duplicateCA2(StructureTools.cloneCAArray(ca));
+		calculator.extractFragments(new AFPChain(), ca, ca2);
+		return calculator.getMatMatrix();
+	}
+
+	/**
+	 * Buffers left over from a larger alignment on the same thread shouldn't
+	 * change the alignment of a smaller one.
+	 */
+	@Test
+	public void testWorkspaceReuse() throws StructureException {
+		Atom[] small = SymmetricChains.cyclic(3, 40);
+		Atom[] large = SymmetricChains.cyclic(4, 50);
+
+		CeSymmWorkspace.get().release();
+		AFPChain fresh = align(small, 0, 1, 1);
+
+		align(large, 0, 1, 1);
+		AFPChain reused = align(small, 0, 1, 1);
+
+		assertAlignmentEquals("reused workspace", fresh, reused);
+	}
+
+	/**
+	 * Aligns {@code ca} to itself with the calculator directly.
+	 * @param traceThreads The threads for traceFragmentMatrix
+	 * @param nextStepThreads The threads for nextStep
+	 */
+	private static AFPChain align(Atom[] ca, double minAngle, int traceThreads, int nextStepThreads) throws StructureException {
+		CESymmParameters params = new CESymmParameters();
+		CESymmCalculator calculator = new CESymmCalculator(params);
+		calculator.setMinAngle(minAngle);
+		Atom[] ca1 = StructureTools.cloneCAArray(ca);
+		Atom[] ca2 = StructureTools.duplicateCA2(StructureTools.cloneCAArray(ca));
+
+		AFPChain afpChain = calculator.extractFragments(new AFPChain(), ca1, ca2);
+		params.setThreads(traceThreads);
+		calculator.traceFragmentMatrix(afpChain, ca1, ca2);
+		params.setThreads(nextStepThreads);
+		calculator.nextStep(afpChain, ca1, ca2);
+		return afpChain;
+	}
+
+	private static void assertAlignmentEquals(String message, AFPChain expected, AFPChain actual) {
+		assertEquals(message, expected.getBlockNum(), actual.getBlockNum());
+		assertArrayEquals(message, expected.getOptLen(), actual.getOptLen());
+		for (int block = 0; block < expected.getBlockNum(); block++) {
+			for (int chain = 0; chain < 2; chain++) {
+				for (int k = 0; k < expected.getOptLen()[block]; k++) {
+					assertEquals(message, expected.getOptAln()[block][chain][k], actual.getOptAln()[block][chain][k]);
+				}
+			}
+		}
+		assertEquals(message, expected.getTotalRmsdOpt(), actual.getTotalRmsdOpt(), 0.0);
+	}
+
+}
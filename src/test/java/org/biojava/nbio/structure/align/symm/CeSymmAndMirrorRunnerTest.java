@@ -0,0 +1,65 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.*;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CeSymmAndMirrorRunner} gives the same alignments as running
+ * {@link CeSymm} and {@link CEMirrorSymm} on their own.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmAndMirrorRunnerTest {
+
+	/**
+	 * Mirroring only the coordinates reuses the fragment matrix of the rotational search.
+	 */
+	@Test
+	public void testSharedMatrix() throws StructureException {
+		assertSameAsStandalone(true, false);
+	}
+
+	@Test
+	public void testReversedSequence() throws StructureException {
+		assertSameAsStandalone(true, true);
+	}
+
+	private static void assertSameAsStandalone(boolean mirrorCoordinates, boolean mirrorSequence) throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(3, 40);
+		Atom[] ca2 = StructureTools.cloneCAArray(ca);
+
+		CeSymmAndMirrorRunner.Result both = new CeSymmAndMirrorRunner(mirrorCoordinates, mirrorSequence)
+				.align(ca, ca2, new CESymmParameters());
+
+		// the input isn't mirrored in place
+		for (int i = 0; i < ca.length; i++) {
+			assertArrayEquals(ca[i].getCoords(), ca2[i].getCoords(), 0.0);
+		}
+
+		AFPChain rotational = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+		AFPChain mirror = new CEMirrorSymm(mirrorCoordinates, mirrorSequence)
+				.align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+
+		assertAlignmentEquals("rotational", rotational, both.getRotational());
+		assertAlignmentEquals("mirror", mirror, both.getMirror());
+	}
+
+	private static void assertAlignmentEquals(String message, AFPChain expected, AFPChain actual) {
+		assertEquals(message, expected.getBlockNum(), actual.getBlockNum());
+		assertArrayEquals(message, expected.getOptLen(), actual.getOptLen());
+		for (int block = 0; block < expected.getBlockNum(); block++) {
+			for (int chain = 0; chain < 2; chain++) {
+				for (int k = 0; k < expected.getOptLen()[block]; k++) {
+					assertEquals(message, expected.getOptAln()[block][chain][k], actual.getOptAln()[block][chain][k]);
+				}
+			}
+		}
+		assertEquals(message, expected.getTotalRmsdOpt(), actual.getTotalRmsdOpt(), 1e-9);
+	}
+
+}
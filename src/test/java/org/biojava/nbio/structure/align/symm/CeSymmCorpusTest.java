@@ -0,0 +1,55 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.*;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.symm.protodomain.AFPChainAndAtoms;
+import org.biojava.nbio.structure.align.symm.protodomain.ResourceList;
+import org.biojava.nbio.structure.align.symm.protodomain.ResourceList.NameProvider;
+import org.biojava.nbio.structure.utils.SuperpositionCache;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the options of {@link CeSymm} against the CeSymm alignments stored in
+ * {@code src/test/resources/jCE-symmetry}.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmCorpusTest {
+
+	private static final String[] NAMES = new String[] {
+		"1hiv.A", "1ngk.B", "d1erja_", "d1juha_", "d1qdma1", "d1u7ga_", "d1uuqa_",
+		"d1w0pa3", "d1zgka1", "d2agsa2", "d2h6fb1", "d2j8ga2", "d3ieka_",
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		ResourceList.set(NameProvider.defaultNameProvider(), ResourceList.DEFAULT_PDB_DIR);
+	}
+
+	/**
+	 * The coarse-to-fine search should find the symmetry of the stored
+	 * alignment, with nearly as high a TM-score.
+	 */
+	@Test
+	public void testCoarseSearch() throws StructureException {
+		for (String name : NAMES) {
+			AFPChainAndAtoms stored = ResourceList.get().loadSymm(name);
+			Atom[] ca1 = stored.getCa1();
+			double expected = SuperpositionCache.getTMScore(stored.getAfpChain(), ca1, stored.getCa2());
+
+			CESymmParameters params = new CESymmParameters();
+			params.setCoarseStep(2);
+			AFPChain coarse = new CeSymm().align(ca1, StructureTools.cloneCAArray(ca1), params);
+
+			assertNotNull(name, coarse);
+			assertTrue(name + ": TM-score " + coarse.getTMScore() + " against " + expected,
+					coarse.getTMScore() >= 0.9 * expected);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.biojava.nbio.structure.align.symm;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.utils.FragmentScores;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link CeSymmMatrix#forSelfAlignment(double[][], int) self-alignment matrix},
+ * which stores only the first half of the columns, reads the same as a full copy
+ * of the matrix the calculator builds against the duplicated structure.
+ *
+ * @author dmyersturnbull
+ */
+public class CeSymmMatrixTest {
+
+	private static final int N = 70;
+	private static final int WIN_SIZE = 8;
+
+	@Test
+	public void testForSelfAlignment() {
+		double[][] mat = duplicatedMatrix(new Random(42));
+		CeSymmMatrix full = new CeSymmMatrix(mat);
+		CeSymmMatrix modular = CeSymmMatrix.forSelfAlignment(mat, WIN_SIZE);
+
+		assertTrue(modular.isSelfAlignment());
+		assertFalse(full.isSelfAlignment());
+		assertEquals(N, modular.getRowDimension());
+		assertEquals(2 * N, modular.getColumnDimension());
+		assertMatrixEquals(full, modular, 1e-9);
+	}
+
+	@Test
+	public void testInvalidColumns() {
+		double[][] mat = duplicatedMatrix(new Random(42));
+		CeSymmMatrix modular = CeSymmMatrix.forSelfAlignment(mat, WIN_SIZE);
+		for (int i = 0; i < N; i++) {
+			// fragments starting here would run past the end of the duplicate
+			for (int j = 2 * N - WIN_SIZE + 1; j < 2 * N; j++) {
+				assertEquals(i + "," + j, CeSymmMatrix.INVALID, mat[i][j], 0.0);
+				assertEquals(i + "," + j, CeSymmMatrix.INVALID, modular.get(i, j), 0.0);
+			}
+			// while their copies in the first half wrap around into the duplicate
+			for (int j = N - WIN_SIZE + 1; j < N; j++) {
+				if (i <= N - WIN_SIZE) {
+					assertTrue(i + "," + j, modular.get(i, j) >= 0);
+				}
+			}
+		}
+		try {
+			modular.set(0, 2 * N - 1, 1.0);
+			fail("Set an invalid column");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMask() {
+		double[][] mat = duplicatedMatrix(new Random(42));
+		CeSymmMatrix full = new CeSymmMatrix(mat);
+		CeSymmMatrix modular = CeSymmMatrix.forSelfAlignment(mat, WIN_SIZE);
+		for (CeSymmMatrix m : new CeSymmMatrix[] {full, modular}) {
+			for (int i = 0; i < N; i++) {
+				m.blank(i, i);
+			}
+			m.blankRow(3, 10, 2 * N);
+		}
+		// blanking a cell doesn't blank its copy in the other half
+		assertTrue(modular.isBlanked(5, 5));
+		assertFalse(modular.isBlanked(5, 5 + N));
+		assertMatrixEquals(full, modular, 1e-9);
+
+		double[][] fullCopy = full.copyTo(null);
+		double[][] modularCopy = modular.copyTo(new double[N][2 * N]);
+		for (int i = 0; i < N; i++) {
+			assertArrayEquals("row " + i, fullCopy[i], modularCopy[i], 1e-9);
+		}
+
+		full.clearMask();
+		modular.clearMask();
+		assertMatrixEquals(full, modular, 1e-9);
+	}
+
+	@Test
+	public void testSet() {
+		double[][] mat = duplicatedMatrix(new Random(42));
+		CeSymmMatrix modular = CeSymmMatrix.forSelfAlignment(mat, WIN_SIZE);
+		modular.set(4, 7 + N, 12.5);
+		assertEquals(12.5, modular.get(4, 7), 0.0);
+		assertEquals(12.5, modular.get(4, 7 + N), 0.0);
+	}
+
+	private static void assertMatrixEquals(CeSymmMatrix expected, CeSymmMatrix actual, double delta) {
+		for (int i = 0; i < expected.getRowDimension(); i++) {
+			for (int j = 0; j < expected.getColumnDimension(); j++) {
+				assertEquals(i + "," + j, expected.get(i, j), actual.get(i, j), delta * Math.max(1, Math.abs(expected.get(i, j))));
+				assertEquals(i + "," + j, expected.isBlanked(i, j), actual.isBlanked(i, j));
+			}
+		}
+	}
+
+	/**
+	 * The fragment matrix of a random chain of {@link #N} points against its
+	 * duplicate, summed the way {@link CESymmCalculator} does.
+	 */
+	private static double[][] duplicatedMatrix(Random random) {
+		double[][] coords = new double[N][3];
+		for (int i = 0; i < N; i++) {
+			for (int k = 0; k < 3; k++) {
+				coords[i][k] = 30 * random.nextDouble();
+			}
+		}
+		double[][] dist1 = new double[N][N];
+		double[][] dist2 = new double[2 * N][2 * N];
+		for (int i = 0; i < 2 * N; i++) {
+			for (int j = 0; j < 2 * N; j++) {
+				dist2[i][j] = distance(coords[i % N], coords[j % N]);
+				if (i < N && j < N) dist1[i][j] = dist2[i][j];
+			}
+		}
+		int winSizeComb1 = (WIN_SIZE-1)*(WIN_SIZE-2)/2;
+		return FragmentScores.sumOfDistances(dist1, dist2, N, 2 * N, WIN_SIZE, winSizeComb1);
+	}
+
+	private static double distance(double[] a, double[] b) {
+		double dx = a[0] - b[0];
+		double dy = a[1] - b[1];
+		double dz = a[2] - b[2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+}
@@ -5,6 +5,7 @@ package org.biojava.nbio.structure.align.symm;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -15,8 +16,10 @@ import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.util.AFPChainScorer;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.util.RotationAxis;
+import org.biojava.nbio.structure.utils.CancellationToken;
 
 /**
  * @author Spencer Bliven
@@ -127,4 +130,189 @@ public class CeSymmTest extends TestCase {
 	}
 */
 	public void testPass() {}
+
+	/**
+	 * The coarse-to-fine search should find the same symmetry as the full
+	 * search: the same shift between the aligned repeats, and about as many
+	 * aligned residues.
+	 */
+	public void testCoarseSearch() throws StructureException {
+		int order = 3;
+		int repeatLength = 60;
+		Atom[] ca = SymmetricChains.cyclic(order, repeatLength);
+
+		CESymmParameters params = new CESymmParameters();
+		AFPChain expected = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), params);
+
+		params.setCoarseStep(2);
+		AFPChain actual = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), params);
+
+		int shift = getShift(expected, ca.length);
+		assertEquals(0, shift % repeatLength);
+		assertFalse(shift == 0);
+		assertEquals(shift, getShift(actual, ca.length));
+		assertTrue(actual.getOptLength() >= 0.9 * expected.getOptLength());
+	}
+
+	/**
+	 * @return The most common offset, modulo {@code n}, between aligned residues
+	 */
+	private static int getShift(AFPChain afpChain, int n) {
+		int[] counts = new int[n];
+		for (int block = 0; block < afpChain.getBlockNum(); block++) {
+			for (int k = 0; k < afpChain.getOptLen()[block]; k++) {
+				int i = afpChain.getOptAln()[block][0][k];
+				int j = afpChain.getOptAln()[block][1][k];
+				counts[((j - i) % n + n) % n]++;
+			}
+		}
+		int shift = 0;
+		for (int offset = 1; offset < n; offset++) {
+			if (counts[offset] > counts[shift]) shift = offset;
+		}
+		return shift;
+	}
+
+	/**
+	 * A sweep should give the same alignment for each set of parameters
+	 * as aligning with those parameters on its own.
+	 */
+	public void testSweep() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(4, 40);
+
+		List<CESymmParameters> paramSets = new ArrayList<CESymmParameters>();
+		for (int winSize : new int[] {6, 8}) {
+			for (double rmsdThr : new double[] {2.0, 3.0}) {
+				CESymmParameters params = new CESymmParameters();
+				params.setWinSize(winSize);
+				params.setRmsdThr(rmsdThr);
+				paramSets.add(params);
+			}
+		}
+
+		List<AFPChain> actual = new CeSymmSweep(2).align(StructureTools.cloneCAArray(ca), paramSets);
+
+		assertEquals(paramSets.size(), actual.size());
+		for (int i = 0; i < paramSets.size(); i++) {
+			AFPChain expected = new CeSymm().align(StructureTools.cloneCAArray(ca), StructureTools.cloneCAArray(ca), paramSets.get(i));
+			assertTrue("Different alignment in a sweep with "+paramSets.get(i),
+					Arrays.deepEquals(expected.getOptAln(), actual.get(i).getOptAln()));
+		}
+	}
+
+	/**
+	 * Refining for the best order should be at least as good as refining for any
+	 * single order, and find the symmetry of the chain.
+	 */
+	public void testRefineBestOrder() throws StructureException {
+		Atom[] ca1 = SymmetricChains.cyclic(3, 40);
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain afpChain = new CeSymm().align(ca1, ca2, new CESymmParameters());
+
+		AFPChain best = SymmRefiner.refineBestOrder(afpChain, ca1, StructureTools.cloneCAArray(ca2), 6, 2, null);
+		double bestTmScore = AFPChainScorer.getTMScore(best, ca1, StructureTools.cloneCAArray(ca2));
+		assertTrue(bestTmScore > 0.5);
+		for (int k = 2; k <= 6; k++) {
+			AFPChain refined;
+			try {
+				refined = SymmRefiner.refineSymmetry(afpChain, ca1, StructureTools.cloneCAArray(ca2), k);
+			} catch (StructureException e) {
+				// refineBestOrder skips this order too
+				continue;
+			}
+			double tmScore = AFPChainScorer.getTMScore(refined, ca1, StructureTools.cloneCAArray(ca2));
+			assertTrue("Order " + k + " refines better than the best order", tmScore <= bestTmScore + 1e-9);
+			if (k == 3) assertEquals(tmScore, bestTmScore, 1e-9);
+		}
+	}
+
+	/**
+	 * A policy should stop the alignment at the stage it asks for, and only for that alignment.
+	 */
+	public void testAbortPolicy() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(3, 40);
+		CeSymm ceSymm = new CeSymm();
+
+		// stopped before optimization, only the scores of the trace are set
+		ceSymm.setAbortPolicy(new CeSymmAbortPolicy() {
+			@Override
+			public boolean shouldContinue(Stage stage, AFPChain afpChain) {
+				return stage != Stage.TRACED;
+			}
+		});
+		AFPChain traced = ceSymm.align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+		assertEquals(CeSymmAbortPolicy.Stage.TRACED, ceSymm.getAbortedAt());
+		assertNotNull(traced);
+		assertTrue(traced.getProbability() > 0);
+
+		ceSymm.setAbortPolicy(new CeSymmAbortPolicy() {
+			@Override
+			public boolean shouldContinue(Stage stage, AFPChain afpChain) {
+				return stage != Stage.FIRST_ALIGNMENT;
+			}
+		});
+		AFPChain aborted = ceSymm.align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+		assertEquals(CeSymmAbortPolicy.Stage.FIRST_ALIGNMENT, ceSymm.getAbortedAt());
+		assertNotNull(aborted);
+		assertTrue(aborted.getOptLength() > 0);
+
+		// stopped after post-processing, the alignment is in the coordinates of the structure
+		ceSymm.setAbortPolicy(new CeSymmAbortPolicy() {
+			@Override
+			public boolean shouldContinue(Stage stage, AFPChain afpChain) {
+				return stage != Stage.POST_PROCESSED;
+			}
+		});
+		AFPChain postProcessed = ceSymm.align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+		assertEquals(CeSymmAbortPolicy.Stage.POST_PROCESSED, ceSymm.getAbortedAt());
+		for (int block = 0; block < postProcessed.getBlockNum(); block++) {
+			for (int k = 0; k < postProcessed.getOptLen()[block]; k++) {
+				assertTrue(postProcessed.getOptAln()[block][1][k] < ca.length);
+			}
+		}
+
+		ceSymm.setAbortPolicy(null);
+		AFPChain complete = ceSymm.align(ca, StructureTools.cloneCAArray(ca), new CESymmParameters());
+		assertNull(ceSymm.getAbortedAt());
+		assertTrue(Arrays.deepEquals(postProcessed.getOptAln(), complete.getOptAln()));
+	}
+
+	/**
+	 * A cancelled alignment should stop cleanly and say so,
+	 * and leave nothing behind that changes the next alignment.
+	 */
+	public void testCancellation() throws StructureException {
+		Atom[] ca = SymmetricChains.cyclic(4, 100);
+		CESymmParameters params = new CESymmParameters();
+		CeSymm ceSymm = new CeSymm();
+
+		// cancelled before the alignment starts
+		CancellationToken cancelled = new CancellationToken();
+		cancelled.cancel();
+		ceSymm.setCancellationToken(cancelled);
+		assertNull(ceSymm.align(ca, StructureTools.cloneCAArray(ca), params));
+		assertTrue(ceSymm.isTimedOut());
+
+		// cancelled halfway, once the trace is done
+		final CancellationToken halfway = new CancellationToken();
+		ceSymm.setCancellationToken(halfway);
+		ceSymm.setAbortPolicy(new CeSymmAbortPolicy() {
+			@Override
+			public boolean shouldContinue(Stage stage, AFPChain afpChain) {
+				halfway.cancel();
+				return true;
+			}
+		});
+		assertNull(ceSymm.align(ca, StructureTools.cloneCAArray(ca), params));
+		assertTrue(ceSymm.isTimedOut());
+
+		ceSymm.setCancellationToken(null);
+		ceSymm.setAbortPolicy(null);
+		AFPChain afpChain = ceSymm.align(ca, StructureTools.cloneCAArray(ca), params);
+		assertNotNull(afpChain);
+		assertFalse(ceSymm.isTimedOut());
+
+		AFPChain fresh = new CeSymm().align(ca, StructureTools.cloneCAArray(ca), params);
+		assertTrue(Arrays.deepEquals(fresh.getOptAln(), afpChain.getOptAln()));
+	}
 }
@@ -0,0 +1,299 @@
+package org.biojava.nbio.structure.align.symm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.util.AlignmentTools;
+
+/**
+ * The original refinement of {@link SymmRefiner}, which rescans every residue
+ * on every step. Kept to check that the incremental refinement gives the same
+ * results, and to measure how much faster it is.
+ * @author Spencer Bliven
+ */
+class ReferenceSymmRefiner {
+
+	public static Map<Integer, Integer> refineSymmetry(Map<Integer, Integer> alignment,int k) throws StructureException {
+
+		// Store scores
+		Map<Integer, Double> scores = null;
+		scores = initializeScores(alignment,scores, k);
+
+		// Store eligible residues
+		// Eligible if:
+		//  1. score(x)>0
+		//  2. f^K-1(x) is defined
+		//	3. score(f^K-1(x))>0
+
+		TreeSet<Integer> forwardLoops = new TreeSet<Integer>();
+		TreeSet<Integer> backwardLoops = new TreeSet<Integer>();
+
+
+		List<Integer> eligible = null;
+		eligible = initializeEligible(alignment,scores,eligible,k,forwardLoops,backwardLoops);
+
+		while (!eligible.isEmpty()) {
+			// Find eligible residue with lowest scores
+			Integer bestRes = null;
+			double bestResScore = Double.POSITIVE_INFINITY;
+			for(Integer res : eligible) {
+				Double score = scores.get(res);
+				if (score != null && score < bestResScore) {
+					bestResScore = score;
+					bestRes = res;
+				}
+			}
+
+			// Find f^k-1(bestRes)
+			Integer resK1 = bestRes;
+			for (int i = 0; i < k - 1; i++) {
+				assert (resK1 != null);
+				resK1 = alignment.get(resK1);
+
+				// Update scores
+				scores.put(resK1, 0.0);
+			}
+			scores.put(bestRes, 0.0);
+
+			// Modify alignment
+			alignment.put(resK1, bestRes);
+
+			scores = initializeScores(alignment, scores, k);
+
+			// Update eligible
+			eligible = initializeEligible(alignment, scores, eligible, k, forwardLoops, backwardLoops);
+		}
+
+		// Remove remaining edges
+		Iterator<Integer> alignmentIt = alignment.keySet().iterator();
+		while (alignmentIt.hasNext()) {
+			Integer res = alignmentIt.next();
+			Double score = scores.get(res);
+			if (score == null || score > 0.0) {
+				alignmentIt.remove();
+			}
+		}
+
+		return alignment;
+	}
+
+	/**
+	 * Helper method to initialize eligible residues.
+	 *
+	 * Eligible if:
+	 *  1. score(x)>0
+	 *  2. f^K-1(x) is defined
+	 *  3. score(f^K-1(x))>0
+	 *  4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
+	 * @param alignment The alignment with respect to which to calculate eligibility
+	 * @param scores An up-to-date map from residues to their scores
+	 * @param eligible Starting list of eligible residues. If null will be generated.
+	 * @param k
+	 * @param backwardLoops
+	 * @param forwardLoops
+	 * @return eligible after modification
+	 */
+	private static List<Integer> initializeEligible(Map<Integer, Integer> alignment,
+			Map<Integer, Double> scores, List<Integer> eligible, int k, NavigableSet<Integer> forwardLoops, NavigableSet<Integer> backwardLoops) {
+		// Eligible if:
+		// 1. score(x)>0
+		// 2. f^K-1(x) is defined
+		// 3. score(f^K-1(x))>0
+		// 4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
+		// 5. Not in a loop of length less than k
+
+
+		// Assume all residues are eligible to start
+		if(eligible == null) {
+			eligible = new LinkedList<Integer>(alignment.keySet());
+		}
+
+		// Precalculate f^K-1(x)
+		Map<Integer, Integer> alignK1 = applyAlignmentAndCheckCycles(alignment, k - 1, eligible);
+
+		// Remove ineligible residues
+		Iterator<Integer> eligibleIt = eligible.iterator();
+		while(eligibleIt.hasNext()) {
+			Integer res = eligibleIt.next();
+
+			//  2. f^K-1(x) is defined
+			if(!alignK1.containsKey(res)) {
+				eligibleIt.remove();
+				continue;
+			}
+			Integer k1 = alignK1.get(res);
+			if(k1 == null) {
+				eligibleIt.remove();
+				continue;
+			}
+
+			//  1. score(x)>0
+			Double score = scores.get(res);
+			if(score == null || score <= 0.0) {
+				eligibleIt.remove();
+
+				// res is in a loop. Add it to the proper set
+				if(res <= alignment.get(res)) {
+					//forward
+					forwardLoops.add(res);
+				} else {
+					//backward
+					backwardLoops.add(res);
+				}
+
+				continue;
+			}
+			//	3. score(f^K-1(x))>0
+			Double scoreK1 = scores.get(k1);
+			if(scoreK1 == null || scoreK1 <= 0.0) {
+				eligibleIt.remove();
+				continue;
+			}
+		}
+
+
+		// Now that loops are up-to-date, check for loop crossings
+		eligibleIt = eligible.iterator();
+		while(eligibleIt.hasNext()) {
+			Integer res = eligibleIt.next();
+
+			//4. For all y, score(y)==0 implies sign(f^K-1(x)-y) == sign(x-f(y) )
+			//Test equivalent: All loop edges should be properly ordered wrt edge f^k-1(x) -> x
+
+			Integer src = alignK1.get(res);
+
+			if( src < res  ) {
+				//forward
+				// get interval [a,b) containing res
+				Integer a = forwardLoops.floor(src);
+				Integer b = forwardLoops.higher(src);
+
+				// Ineligible unless f(a) < res < f(b)
+				if(a != null && alignment.get(a) > res ) {
+					eligibleIt.remove();
+					continue;
+				}
+				if(b != null && alignment.get(b) < res ) {
+					eligibleIt.remove();
+					continue;
+				}
+			}
+		}
+
+		return eligible;
+	}
+
+
+	/**
+	 * Like {@link AlignmentTools#applyAlignment(Map, int)}, returns a map of k applications of alignmentMap. However,
+	 * it also sets loops of size less than k as ineligible.
+	 *
+	 * @param alignmentMap
+	 *            f(x)
+	 * @param k
+	 * @param eligible
+	 *            Eligible residues. Residues from small cycles are removed.
+	 * @return f^k(x)
+	 */
+	private static Map<Integer, Integer> applyAlignmentAndCheckCycles(Map<Integer, Integer> alignmentMap, int k, List<Integer> eligible) {
+
+		// Convert to lists to establish a fixed order (avoid concurrent modification)
+		List<Integer> preimage = new ArrayList<Integer>(alignmentMap.keySet()); // currently unmodified
+		List<Integer> image = new ArrayList<Integer>(preimage);
+
+		for (int n = 1; n <= k; n++) {
+			// apply alignment
+			for (int i = 0; i < image.size(); i++) {
+				final Integer pre = image.get(i);
+				final Integer post = (pre == null ? null : alignmentMap.get(pre));
+				image.set(i, post);
+
+				// Make cycles ineligible
+				if (post != null && post.equals(preimage.get(i))) {
+					eligible.remove(preimage.get(i)); // Could be O(n) with List impl
+				}
+			}
+		}
+
+		Map<Integer, Integer> imageMap = new HashMap<Integer, Integer>(alignmentMap.size());
+
+		// now populate with actual values
+		for (int i = 0; i < preimage.size(); i++) {
+			Integer pre = preimage.get(i);
+			Integer postK = image.get(i);
+			imageMap.put(pre, postK);
+		}
+		return imageMap;
+	}
+
+	/**
+	 * Calculates all scores for an alignment
+	 * @param alignment
+	 * @param scores A mapping from residues to scores, which will be updated or
+	 * 	created if null
+	 * @return scores
+	 */
+	private static Map<Integer, Double> initializeScores(Map<Integer, Integer> alignment,
+			Map<Integer, Double> scores, int k) {
+		if(scores == null) {
+			scores = new HashMap<Integer, Double>(alignment.size());
+		} else {
+			scores.clear();
+		}
+		Map<Integer,Integer> alignK = AlignmentTools.applyAlignment(alignment, k);
+
+		// calculate input range
+		int maxPre = Integer.MIN_VALUE;
+		int minPre = Integer.MAX_VALUE;
+		for(Integer pre : alignment.keySet()) {
+			if(pre>maxPre) maxPre = pre;
+			if(pre<minPre) minPre = pre;
+		}
+
+		for(Integer pre : alignment.keySet()) {
+			Integer image = alignK.get(pre);
+
+			// Use the absolute error score, |x - f^k(x)|
+			double score = scoreAbsError(pre,image,minPre,maxPre);
+			scores.put(pre, score);
+		}
+		return scores;
+	}
+
+
+
+	/**
+	 * Calculate the score for a residue, specifically the Absolute Error
+	 * 	score(x) = |x-f^k(x)|
+	 *
+	 * Also includes a small bias based on residue number, for uniqueness..
+	 * @param pre x
+	 * @param image f^k(x)
+	 * @param minPre lowest possible residue number
+	 * @param maxPre highest possible residue number
+	 * @return
+	 */
+	private static double scoreAbsError(Integer pre, Integer image,int minPre,int maxPre) {
+		// Use the absolute error score, |x - f^k(x)|
+		double error;
+		if(image == null) {
+			error = Double.POSITIVE_INFINITY;
+		} else {
+			error = Math.abs(pre - image);
+		}
+
+		// Add fractional portion relative to sequence position, for uniqueness
+		if(error > 0)
+			error += (double)(pre-minPre)/(1+maxPre-minPre);
+
+		return error;
+	}
+
+}
@@ -7,12 +7,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.align.util.AlignmentTools;
 import org.biojava.nbio.structure.align.symm.SymmRefiner;
+import org.biojava.nbio.structure.utils.AlignmentFunction;
 
 /**
  * @author blivens
@@ -285,6 +287,92 @@ public class SymmRefinerTest extends TestCase {
 		}
 	}
 
+	/**
+	 * @return A noisy alignment of residues 1 to n, shifted by n/k, with some residues missing
+	 */
+	private static Map<Integer, Integer> randomAlignment(Random random, int n, int k, double noise, double missing) {
+		Map<Integer, Integer> align = new HashMap<Integer, Integer>();
+		for (int x = 1; x <= n; x++) {
+			if (random.nextDouble() < missing) continue;
+			int y = (x - 1 + n / k) % n + 1;
+			if (random.nextDouble() < noise) y = (y - 1 + random.nextInt(7) - 3 + n) % n + 1;
+			align.put(x, y);
+		}
+		return align;
+	}
+
+	/**
+	 * The incremental refinement should give exactly what the original one did.
+	 */
+	public void testMatchesReference() throws StructureException {
+		Random random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			int k = 2 + random.nextInt(5);
+			int n = 10 + random.nextInt(150);
+			Map<Integer, Integer> align = randomAlignment(random, n, k, random.nextDouble() * 0.5, random.nextDouble() * 0.2);
+
+			Map<Integer, Integer> expected = ReferenceSymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), k);
+			Map<Integer, Integer> refined = SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), k);
+			assertEquals("Refinement of random alignment " + i + " differs", expected, refined);
+		}
+	}
+
+	/**
+	 * Refining an {@link AlignmentFunction} should give the same alignment as the original refinement of a map.
+	 */
+	public void testAlignmentFunction() throws StructureException {
+		Random random = new Random(7);
+		for (int i = 0; i < 100; i++) {
+			int k = 2 + random.nextInt(5);
+			Map<Integer, Integer> align = randomAlignment(random, 20 + random.nextInt(200), k, 0.3, 0.1);
+
+			Map<Integer, Integer> expected = ReferenceSymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), k);
+			AlignmentFunction refined = SymmRefiner.refineSymmetry(AlignmentFunction.fromMap(align), k, null);
+			assertEquals("Refinement of random alignment " + i + " differs", expected, refined.toMap());
+		}
+	}
+
+	/**
+	 * A long alignment should refine the same way as the original refinement does.
+	 */
+	public void testLargeAlignment() throws StructureException {
+		int n = 1200;
+		Map<Integer, Integer> align = randomAlignment(new Random(n), n, 3, 0.3, 0.05);
+		Map<Integer, Integer> expected = ReferenceSymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), 3);
+		Map<Integer, Integer> refined = SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), 3);
+		assertEquals(expected, refined);
+	}
+
+	/**
+	 * Times the incremental refinement against the original one on a long alignment.
+	 * Not a test, since the timings depend on the machine.
+	 * @param args The length of the alignment (default 1200)
+	 */
+	public static void main(String[] args) throws StructureException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1200;
+
+		// let the JIT compile both before timing them
+		Map<Integer, Integer> warmUp = randomAlignment(new Random(600), 600, 3, 0.3, 0.05);
+		ReferenceSymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(warmUp), 3);
+		SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(warmUp), 3);
+
+		Map<Integer, Integer> align = randomAlignment(new Random(n), n, 3, 0.3, 0.05);
+		long referenceTime = Long.MAX_VALUE;
+		long incrementalTime = Long.MAX_VALUE;
+		for (int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			ReferenceSymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), 3);
+			referenceTime = Math.min(referenceTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			SymmRefiner.refineSymmetry(new HashMap<Integer, Integer>(align), 3);
+			incrementalTime = Math.min(incrementalTime, System.nanoTime() - start);
+		}
+		System.out.println("Refining " + n + " residues: original " + referenceTime / 1000000 + " ms, incremental "
+				+ incrementalTime / 1000000 + " ms (" + String.format("%.1f", (double) referenceTime / incrementalTime)
+				+ " times faster)");
+	}
+
 	/* Didn't end up being a useful function, so never implemented.
 
 	public void testPartitionAlignment() throws SecurityException, NoSuchMethodException, IllegalArgumentException, IllegalAccessException, InvocationTargetException {
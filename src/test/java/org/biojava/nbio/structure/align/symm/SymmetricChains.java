@@ -0,0 +1,60 @@
+package org.biojava.nbio.structure.align.symm;
+
+import org.biojava.nbio.structure.AminoAcidImpl;
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.ChainImpl;
+import org.biojava.nbio.structure.Element;
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.StructureImpl;
+
+/**
+ * Made-up C&alpha; chains with exact cyclic symmetry, for tests that shouldn't
+ * need to download structures.
+ *
+ * @author dmyersturnbull
+ */
+public class SymmetricChains {
+
+	/**
+	 * Returns a chain of {@code order} identical repeats of {@code repeatLength}
+	 * residues each, wound once around the z axis. Within a repeat the radius and
+	 * height wobble irregularly, so a repeat only superimposes onto the other repeats.
+	 * Consecutive residues are about 3&Aring; apart.
+	 */
+	public static Atom[] cyclic(int order, int repeatLength) {
+		int n = order * repeatLength;
+		double radius = 3.8 * n / (2 * Math.PI) / 2;
+
+		Structure structure = new StructureImpl();
+		structure.setName("cyclic" + order);
+		Chain chain = new ChainImpl();
+		chain.setChainID("A");
+		structure.addChain(chain);
+
+		Atom[] ca = new Atom[n];
+		for (int i = 0; i < n; i++) {
+			double phase = 2 * Math.PI * (i % repeatLength) / repeatLength;
+			double theta = 2 * Math.PI * i / n;
+			double r = radius + 3 * Math.sin(phase) + 2 * Math.cos(2 * phase + 1) + Math.sin(5 * phase);
+			double z = 4 * Math.sin(3 * phase + 0.5) + 2 * Math.cos(phase);
+
+			AtomImpl atom = new AtomImpl();
+			atom.setName("CA");
+			atom.setElement(Element.C);
+			atom.setCoords(new double[] {r * Math.cos(theta), r * Math.sin(theta), z});
+
+			AminoAcidImpl group = new AminoAcidImpl();
+			group.setPDBName("ALA");
+			group.setAminoType('A');
+			group.setResidueNumber("A", i + 1, null);
+			group.addAtom(atom);
+			chain.addGroup(group);
+
+			ca[i] = atom;
+		}
+		return ca;
+	}
+
+}
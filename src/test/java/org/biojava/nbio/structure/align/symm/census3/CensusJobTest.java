@@ -36,6 +36,7 @@ import org.biojava.nbio.structure.scop.ScopDatabase;
 import org.biojava.nbio.structure.scop.ScopDomain;
 import org.biojava.nbio.structure.scop.ScopFactory;
 import org.biojava.nbio.structure.align.symm.CeSymm;
+import org.biojava.nbio.structure.align.symm.CeSymmAbortPolicy;
 import org.biojava.nbio.structure.align.symm.census3.CensusResult;
 import org.biojava.nbio.structure.align.symm.census3.run.AfpChainCensusRestrictor;
 import org.biojava.nbio.structure.align.symm.census3.run.CensusJob;
@@ -104,6 +105,35 @@ public class CensusJobTest extends TestCase{
 		assertEquals(zScore, result.getScoreList().getzScore().doubleValue(), 0);
 	}
 	
+	/**
+	 * A result CE-Symm stopped early should only keep the scores, since its alignment may not be post-processed.
+	 */
+	@Test
+	public void testAborted() throws Exception {
+		final CeSymm ceSymm = mock(CeSymm.class);
+		AFPChain afpChain = new AFPChain();
+		afpChain.setProbability(zScore);
+		afpChain.setBlockNum(1);
+		afpChain.setOptAln(new int[1][][]);
+		when(ceSymm.align(any(Atom[].class), any(Atom[].class))).thenReturn(afpChain);
+		when(ceSymm.getAbortedAt()).thenReturn(CeSymmAbortPolicy.Stage.FIRST_ALIGNMENT);
+		AlgorithmGiver aborting = new AlgorithmGiver() {
+			@Override
+			public StructureAlignment getAlgorithm() {
+				return ceSymm;
+			}
+		};
+
+		CensusJob job = new CensusJob(aborting, sig);
+		job.setCount(0);
+		job.setName("4JNO.A");
+		CensusResult result = job.call();
+		assertEquals(CensusResult.ABORTED_EARLY, result.getStatus());
+		assertEquals(zScore, result.getScoreList().getzScore().doubleValue(), 0);
+		assertNull(result.getAlignment());
+		assertNull(result.getAxis());
+	}
+
 	@Test
 	public void test() {
 		ScopDatabase scop = ScopFactory.getSCOP(ScopFactory.VERSION_1_75A);
@@ -0,0 +1,70 @@
+package org.biojava.nbio.structure.align.symm.census3.run;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.align.symm.SymmetricChains;
+import org.junit.Test;
+
+/**
+ * Tests {@link ContactMapPrescreen#calibrate(List, double)} on made-up symmetric domains.
+ *
+ * @author dmyersturnbull
+ */
+public class ContactMapPrescreenTest {
+
+	@Test
+	public void testCalibrate() {
+		Random random = new Random(42);
+		List<Atom[]> symmetric = new ArrayList<Atom[]>();
+		for (int i = 0; i < 40; i++) {
+			Atom[] ca = SymmetricChains.cyclic(2 + i % 5, 25 + random.nextInt(20));
+			// from exact symmetry to barely any, so the scores spread out
+			perturb(ca, random, 0.05 * i);
+			symmetric.add(ca);
+		}
+
+		for (double rate : new double[] {0, 0.1, 0.25, 0.5, 0.9}) {
+			ContactMapPrescreen prescreen = ContactMapPrescreen.calibrate(symmetric, rate);
+			int skipped = 0;
+			int ties = 0;
+			for (Atom[] ca : symmetric) {
+				if (!prescreen.isPossiblySymmetric(ca)) skipped++;
+				if (ContactMapPrescreen.score(ca) == prescreen.getThreshold()) ties++;
+			}
+			// domains scoring exactly the threshold pass, so without ties exactly the requested fraction is skipped
+			int expected = (int) Math.floor(rate * symmetric.size());
+			assertTrue("Skipped " + skipped + " at rate " + rate, skipped <= expected);
+			assertTrue("Skipped " + skipped + " at rate " + rate, skipped + ties > expected);
+		}
+
+		assertTrue(ContactMapPrescreen.calibrate(symmetric, 0.5).getThreshold()
+				> ContactMapPrescreen.calibrate(symmetric, 0.1).getThreshold());
+	}
+
+	@Test
+	public void testCalibrateAll() {
+		List<Atom[]> symmetric = new ArrayList<Atom[]>();
+		symmetric.add(SymmetricChains.cyclic(3, 30));
+		ContactMapPrescreen prescreen = ContactMapPrescreen.calibrate(symmetric, 1);
+		assertFalse(prescreen.isPossiblySymmetric(symmetric.get(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCalibrateEmpty() {
+		ContactMapPrescreen.calibrate(new ArrayList<Atom[]>(), 0.1);
+	}
+
+	private static void perturb(Atom[] ca, Random random, double sigma) {
+		for (Atom atom : ca) {
+			atom.setX(atom.getX() + sigma * random.nextGaussian());
+			atom.setY(atom.getY() + sigma * random.nextGaussian());
+			atom.setZ(atom.getZ() + sigma * random.nextGaussian());
+		}
+	}
+
+}
@@ -6,8 +6,11 @@ package org.biojava.nbio.structure.align.symm.order;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import org.apache.commons.math3.util.Pair;
 import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.Calc;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.align.model.AFPChain;
@@ -16,6 +19,7 @@ import org.biojava.nbio.structure.scop.ScopFactory;
 import org.biojava.nbio.structure.align.symm.CeSymm;
 import org.biojava.nbio.structure.align.symm.order.OrderDetectionFailedException;
 import org.biojava.nbio.structure.align.symm.order.RotationOrderDetector;
+import org.biojava.nbio.structure.utils.CoordinateBlock;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -395,4 +399,183 @@ public class RotationOrderDetectorTest {
 
 	}
 
+	@Test
+	public void testSuperpositionDistanceBlock() throws IOException, StructureException {
+		String name = "1MER.A";
+		Atom[] ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain alignment = ce.align(ca1, ca2);
+		RotationAxis axis = new RotationAxis(alignment);
+		axis.rotate(ca2, 40*Calc.radiansPerDegree);
+
+		double expected = RotationOrderDetector.superpositionDistance(ca1, ca2);
+		double actual = RotationOrderDetector.superpositionDistance(new CoordinateBlock(ca1), new CoordinateBlock(ca2));
+		assertEquals(name, expected, actual, 0.0);
+	}
+
+	@Test
+	public void testSuperpositionDistanceGrid() throws IOException, StructureException {
+		// large enough to be searched with grids
+		String name = "1TIM";
+		Atom[] ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain alignment = ce.align(ca1, ca2);
+		RotationAxis axis = new RotationAxis(alignment);
+
+		CoordinateBlock coords1 = new CoordinateBlock(ca1);
+		CoordinateBlock coords2 = new CoordinateBlock(ca2);
+		for (int step = 0; step < 12; step++) {
+			coords2.update(ca2);
+			double expected = RotationOrderDetector.superpositionDistance(ca1, ca2);
+			double actual = RotationOrderDetector.superpositionDistance(coords1, coords2);
+			assertEquals(name + " at step " + step, expected, actual, 0.0);
+			axis.rotate(ca2, 30*Calc.radiansPerDegree);
+		}
+	}
+
+	@Test
+	public void testSampleDistances() throws IOException, StructureException {
+		String name = "1MER.A";
+		Atom[] ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain alignment = ce.align(ca1, ca2);
+		RotationAxis axis = new RotationAxis(alignment);
+
+		double angleIncr = 30*Calc.radiansPerDegree;
+		double[] serial = RotationOrderDetector.sampleDistances(ca1, axis, angleIncr, angleIncr, 12, 1);
+		double[] parallel = RotationOrderDetector.sampleDistances(ca1, axis, angleIncr, angleIncr, 12, 4);
+		assertArrayEquals(name, serial, parallel, 0.0);
+
+		// the same rotations as stepping with RotationAxis.rotate
+		for (int step = 0; step < 12; step++) {
+			axis.rotate(ca2, angleIncr);
+			double expected = RotationOrderDetector.superpositionDistance(ca1, ca2);
+			assertEquals(name + " at step " + step, expected, serial[step], 1e-6);
+		}
+	}
+
+	@Test
+	public void testRotationProfileCache() throws IOException, StructureException {
+		String name = "1MER.A";
+		Atom[] ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain alignment = ce.align(ca1, ca2);
+
+		double angleIncr = 30*Calc.radiansPerDegree;
+		RotationProfileCache cache = RotationProfileCache.forAtoms(ca1);
+		assertSame(name, cache, RotationProfileCache.forAtoms(ca1));
+
+		// half a turn first, then the whole turn from a separately constructed axis
+		double[] half = cache.getDistances(new RotationAxis(alignment), angleIncr, 2, 4, 1);
+		double[] turn = cache.getDistances(new RotationAxis(alignment), angleIncr, 0, 12, 1);
+		double[] expected = RotationOrderDetector.sampleDistances(ca1, new RotationAxis(alignment), 0, angleIncr, 12, 1);
+		assertArrayEquals(name, expected, turn, 0.0);
+		assertArrayEquals(name, Arrays.copyOfRange(expected, 2, 6), half, 0.0);
+
+		// moving the atoms replaces the cache
+		new RotationAxis(alignment).rotate(ca1, angleIncr);
+		assertNotSame(name, cache, RotationProfileCache.forAtoms(ca1));
+	}
+
+	@Test
+	public void testHarmonicAmplitudes() {
+		double angleIncr = RotationOrderDetector.DEFAULT_ANGLE_INCR;
+		double[] distances = new double[72];
+		for (int step = 0; step < distances.length; step++) {
+			double angle = angleIncr*step;
+			double x1 = Math.sin(angle/2), x3 = Math.sin(3*angle/2), x8 = Math.sin(8*angle/2);
+			distances[step] = 1.5 + 0.25*x1*x1 + 2*x3*x3 - 0.5*x8*x8;
+		}
+		double[] expected = new double[] { 1.5,
+				0.25, 0, 2, 0,
+				0, 0, 0, -0.5
+		};
+		assertArrayEquals(expected, RotationOrderDetector.harmonicAmplitudes(distances, angleIncr, 8), 1e-10);
+	}
+
+	@Test
+	public void testCalculateOrderByHarmonicsDFT() throws IOException, StructureException, OrderDetectionFailedException {
+		String name;
+
+		// Perform alignment to determine axis
+		Atom[] ca1, ca2;
+		AFPChain alignment;
+		int order;
+
+		name = "1MER.A";
+		ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		ca2 = StructureTools.cloneCAArray(ca1);
+		alignment = ce.align(ca1, ca2);
+
+		order = detector.calculateOrderHarmonicsDFT(alignment, ca1);
+
+		assertEquals(name,2,order);
+
+
+		ce = new CeSymm();// work around bug
+
+		name = "d1ijqa1";
+		ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		ca2 = StructureTools.cloneCAArray(ca1);
+		alignment = ce.align(ca1, ca2);
+
+		order = detector.calculateOrderHarmonicsDFT(alignment, ca1);
+
+		assertEquals(name,6,order);
+
+		ce = new CeSymm();// work around bug
+
+		name = "1TIM.A";
+		ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		ca2 = StructureTools.cloneCAArray(ca1);
+		alignment = ce.align(ca1, ca2);
+
+		order = detector.calculateOrderHarmonicsDFT(alignment, ca1);
+
+		assertEquals(name,1,order);// tough case
+	}
+
+	@Test
+	public void testSampleRotationsAdaptive() throws IOException, StructureException {
+		String name = "1MER.A"; // C2
+		Atom[] ca1 = StructureTools.getAtomCAArray(StructureTools.getStructure(name));
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		AFPChain alignment = ce.align(ca1, ca2);
+		RotationAxis axis = new RotationAxis(alignment);
+
+		Pair<double[],double[]> adaptive = RotationOrderDetector.sampleRotationsAdaptive(ca1, axis,
+				RotationOrderDetector.DEFAULT_COARSE_DEGREES, RotationOrderDetector.DEFAULT_FINE_DEGREES, 1);
+		Pair<double[],double[]> uniform = RotationOrderDetector.sampleRotations(ca1, axis, 5);
+
+		// several times fewer distances than the default pass
+		double[] angles = adaptive.getKey();
+		assertTrue(name + " took " + angles.length + " samples", 3*angles.length <= uniform.getKey().length);
+		for (int i = 1; i < angles.length; i++) {
+			assertTrue(name, angles[i-1] < angles[i]);
+		}
+		assertTrue(name, angles[angles.length-1] <= Math.PI + 1e-9);
+
+		// the minimum near 180 degrees is where a uniform pass at the fine resolution puts it
+		Pair<double[],double[]> fine = RotationOrderDetector.sampleRotations(ca1, axis, RotationOrderDetector.DEFAULT_FINE_DEGREES);
+		double expected = angleOfMinimum(fine, Math.PI/2, 3*Math.PI/2);
+		if (expected > Math.PI) expected = 2*Math.PI - expected;
+		assertEquals(name, expected, angleOfMinimum(adaptive, Math.PI/2, 3*Math.PI/2),
+				RotationOrderDetector.DEFAULT_FINE_DEGREES*Calc.radiansPerDegree);
+	}
+
+	/**
+	 * @return The angle between {@code from} and {@code to} with the lowest distance
+	 */
+	private static double angleOfMinimum(Pair<double[],double[]> profile, double from, double to) {
+		double min = Double.POSITIVE_INFINITY;
+		double angle = Double.NaN;
+		for (int i = 0; i < profile.getKey().length; i++) {
+			if (profile.getKey()[i] >= from && profile.getKey()[i] <= to && profile.getValue()[i] < min) {
+				min = profile.getValue()[i];
+				angle = profile.getKey()[i];
+			}
+		}
+		return angle;
+	}
+
 }
@@ -5,15 +5,18 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.util.AlignmentTools;
 import org.biojava.nbio.structure.align.util.AtomCache;
 import org.biojava.nbio.structure.align.symm.CeSymm;
 import org.biojava.nbio.structure.align.symm.CeSymmTest;
 import org.biojava.nbio.structure.align.symm.order.OrderDetectionFailedException;
 import org.biojava.nbio.structure.align.symm.order.SequenceFunctionOrderDetector;
+import org.biojava.nbio.structure.utils.AlignmentFunction;
 import org.junit.Test;
 
 /**
@@ -47,5 +50,35 @@ public class SequenceFunctionOrderDetectorTest {
 			assertEquals("Wrong order for "+name,orderMap.get(name).intValue(), order);
 		}
 	}
-	
+
+	/**
+	 * The order of an {@link AlignmentFunction} should be the order
+	 * {@link AlignmentTools#getSymmetryOrder(Map, Map, int, float)} finds for the same map.
+	 */
+	@Test
+	public void testGetSymmetryOrderOfFunction() {
+		Random random = new Random(42);
+		for (int i = 0; i < 300; i++) {
+			int k = 1 + random.nextInt(8);
+			int n = 20 + random.nextInt(280);
+			double noise = random.nextDouble() * 0.5;
+			double missing = random.nextDouble() * 0.3;
+
+			// residues shifted by about n/k, some of them off by a few or missing
+			Map<Integer, Integer> align = new HashMap<Integer, Integer>();
+			for (int x = 0; x < n; x++) {
+				if (random.nextDouble() < missing) continue;
+				int y = x + n / k;
+				if (random.nextDouble() < noise) y += random.nextInt(11) - 5;
+				align.put(x, (y % n + n) % n);
+			}
+
+			for (float minimumMetricChange : new float[] {0.4f, 0.7f}) {
+				int expected = AlignmentTools.getSymmetryOrder(align, new AlignmentTools.IdentityMap<Integer>(), 8, minimumMetricChange);
+				int actual = SequenceFunctionOrderDetector.getSymmetryOrder(AlignmentFunction.fromMap(align), 8, minimumMetricChange);
+				assertEquals("Alignment " + i + " with minimumMetricChange " + minimumMetricChange, expected, actual);
+			}
+		}
+	}
+
 }
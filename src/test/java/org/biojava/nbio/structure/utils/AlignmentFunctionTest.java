@@ -0,0 +1,111 @@
+package org.biojava.nbio.structure.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.junit.Test;
+
+/**
+ * Tests converting an {@link AlignmentFunction} to and from the optimal alignment of an {@link AFPChain}.
+ *
+ * @author dmyersturnbull
+ */
+public class AlignmentFunctionTest {
+
+	@Test
+	public void testFromAFPChain() throws StructureException {
+		// a circular permutation: the second block starts over at the beginning of the second structure
+		int[][][] optAln = new int[][][] {
+				{{0, 1, 2, 4, 5}, {10, 11, 12, 13, 15}},
+				{{6, 7, 9}, {0, 1, 2}},
+		};
+		AFPChain afpChain = newAFPChain(optAln, 16);
+
+		AlignmentFunction f = AlignmentFunction.fromAFPChain(afpChain);
+		assertEquals(16, f.length());
+		assertEquals(8, f.size());
+		assertEquals(13, f.get(4));
+		assertEquals(AlignmentFunction.UNALIGNED, f.get(3));
+		assertEquals(2, f.get(9));
+		assertArrayEquals(optAln, f.toOptAln());
+	}
+
+	@Test
+	public void testRoundTrip() throws StructureException {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			int n = 1 + random.nextInt(100);
+			AlignmentFunction f = new AlignmentFunction(n);
+			for (int res = 0; res < n; res++) {
+				// random images, so several residues are often aligned to the same one
+				if (random.nextDouble() < 0.7) f.set(res, random.nextInt(n));
+			}
+
+			int[][][] optAln = f.toOptAln();
+			int aligned = 0;
+			for (int[][] block : optAln) {
+				assertEquals(block[0].length, block[1].length);
+				for (int k = 1; k < block[1].length; k++) {
+					assertTrue("Residues of the second structure should increase within a block", block[1][k] > block[1][k - 1]);
+				}
+				aligned += block[0].length;
+			}
+			assertEquals(f.size(), aligned);
+
+			assertEquals("Alignment " + i, f, AlignmentFunction.fromAFPChain(newAFPChain(optAln, n)));
+		}
+	}
+
+	/**
+	 * Residues aligned to the same residue of the second structure can't share a block.
+	 */
+	@Test
+	public void testSameImage() throws StructureException {
+		AlignmentFunction f = new AlignmentFunction(10);
+		f.set(2, 7);
+		f.set(3, 7);
+		f.set(4, 8);
+
+		int[][][] optAln = f.toOptAln();
+		assertArrayEquals(new int[][][] {{{2}, {7}}, {{3, 4}, {7, 8}}}, optAln);
+		assertEquals(f, AlignmentFunction.fromAFPChain(newAFPChain(optAln, 10)));
+	}
+
+	/**
+	 * A residue of the first structure can't have two images.
+	 */
+	@Test(expected = StructureException.class)
+	public void testDuplicateResidue() throws StructureException {
+		int[][][] optAln = new int[][][] {
+				{{1, 2, 3}, {5, 6, 7}},
+				{{3, 4}, {0, 1}},
+		};
+		AlignmentFunction.fromAFPChain(newAFPChain(optAln, 10));
+	}
+
+	@Test
+	public void testEmpty() throws StructureException {
+		AlignmentFunction f = new AlignmentFunction(5);
+		int[][][] optAln = f.toOptAln();
+		assertEquals(0, optAln.length);
+		assertEquals(f, AlignmentFunction.fromAFPChain(newAFPChain(optAln, 5)));
+	}
+
+	private static AFPChain newAFPChain(int[][][] optAln, int length) {
+		int[] optLen = new int[optAln.length];
+		for (int block = 0; block < optAln.length; block++) {
+			optLen[block] = optAln[block][0].length;
+		}
+		AFPChain afpChain = new AFPChain();
+		afpChain.setCa1Length(length);
+		afpChain.setCa2Length(length);
+		afpChain.setBlockNum(optAln.length);
+		afpChain.setOptLen(optLen);
+		afpChain.setOptAln(optAln);
+		return afpChain;
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.biojava.nbio.structure.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the sliding-window sums of {@link FragmentScores} against summing
+ * every window in full.
+ *
+ * @author dmyersturnbull
+ */
+public class FragmentScoresTest {
+
+	@Test
+	public void testSumOfDistances() {
+		Random random = new Random(42);
+		// long enough for a diagonal to be resummed along the way
+		int nse1 = 300;
+		int nse2 = 2 * nse1;
+		double[][] dist1 = randomDistances(random, nse1);
+		double[][] dist2 = randomDistances(random, nse2);
+
+		for (int winSize : new int[] {3, 8}) {
+			int winSizeComb1 = (winSize-1)*(winSize-2)/2;
+			double[][] actual = FragmentScores.sumOfDistances(dist1, dist2, nse1, nse2, winSize, winSizeComb1);
+			assertEquals(nse1, actual.length);
+			for (int ise1 = 0; ise1 < nse1; ise1++) {
+				assertEquals(nse2, actual[ise1].length);
+				for (int ise2 = 0; ise2 < nse2; ise2++) {
+					double expected = naiveSum(dist1, dist2, nse1, nse2, ise1, ise2, winSize, winSizeComb1);
+					assertEquals("winSize " + winSize + " at " + ise1 + "," + ise2, expected, actual[ise1][ise2], 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSumOfDistancesFiltered() {
+		Random random = new Random(42);
+		final int nse1 = 300;
+		int nse2 = 2 * nse1;
+		int winSize = 8;
+		int winSizeComb1 = (winSize-1)*(winSize-2)/2;
+		double[][] dist1 = randomDistances(random, nse1);
+		double[][] dist2 = randomDistances(random, nse2);
+
+		// runs of accepted cells of different lengths along each diagonal
+		FragmentScores.CellFilter filter = new FragmentScores.CellFilter() {
+			@Override
+			public boolean accept(int ise1, int ise2) {
+				return (ise2 - ise1 + nse1) % 50 < 20 && ise1 % 37 != 0;
+			}
+		};
+		double[][] expected = FragmentScores.sumOfDistances(dist1, dist2, nse1, nse2, winSize, winSizeComb1);
+		double[][] actual = FragmentScores.sumOfDistances(dist1, dist2, nse1, nse2, winSize, winSizeComb1, filter, 99.0);
+		for (int ise1 = 0; ise1 < nse1; ise1++) {
+			for (int ise2 = 0; ise2 < nse2; ise2++) {
+				double value = expected[ise1][ise2] < 0 || filter.accept(ise1, ise2) ? expected[ise1][ise2] : 99.0;
+				assertEquals(ise1 + "," + ise2, value, actual[ise1][ise2], 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testFillDkMatrix() {
+		Random random = new Random(42);
+		int fragmentLength = 5;
+		int rows = 40;
+		int cols = 60;
+		double[] dist1 = new double[rows + fragmentLength - 1];
+		double[] dist2 = new double[cols + fragmentLength - 1];
+		for (int i = 0; i < dist1.length; i++) dist1[i] = 20 * random.nextDouble();
+		for (int i = 0; i < dist2.length; i++) dist2[i] = 20 * random.nextDouble();
+
+		double[][] matrix = FragmentScores.fillDkMatrix(dist1, dist2, fragmentLength, rows, cols, new double[rows][cols]);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				double sum1 = 0;
+				double sum2 = 0;
+				for (int k = 0; k < fragmentLength; k++) {
+					sum1 += dist1[i + k];
+					sum2 += dist2[j + k];
+				}
+				assertEquals(i + "," + j, Math.abs(sum1 - sum2), matrix[i][j], 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * The sum {@code CECalculator.initSumOfDistances} computes for one cell.
+	 */
+	private static double naiveSum(double[][] dist1, double[][] dist2, int nse1, int nse2,
+			int ise1, int ise2, int winSize, int winSizeComb1) {
+		if (ise1 > nse1-winSize || ise2 > nse2-winSize) return -1.0;
+		double d = 0.0;
+		for (int is1 = 0; is1 < winSize-2; is1++) {
+			for (int is2 = is1+2; is2 < winSize; is2++) {
+				d += Math.abs(dist1[ise1+is1][ise1+is2] - dist2[ise2+is1][ise2+is2]);
+			}
+		}
+		return d / winSizeComb1;
+	}
+
+	private static double[][] randomDistances(Random random, int n) {
+		double[][] dist = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				dist[i][j] = dist[j][i] = 40 * random.nextDouble();
+			}
+		}
+		return dist;
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.biojava.nbio.structure.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.junit.Test;
+
+/**
+ * Tests that {@link IntraDistanceCache} follows the atoms it was created for.
+ *
+ * @author dmyersturnbull
+ */
+public class IntraDistanceCacheTest {
+
+	@Test
+	public void testMovedAtoms() {
+		Atom[] ca = randomAtoms(new Random(42), 30);
+		IntraDistanceCache cache = IntraDistanceCache.forAtoms(ca);
+		assertSame(cache, IntraDistanceCache.forAtoms(ca));
+		assertEquals(distance(ca[2], ca[9]), cache.getDistance(2, 9), 1e-12);
+
+		ca[9].setX(ca[9].getX() + 5);
+		IntraDistanceCache moved = IntraDistanceCache.forAtoms(ca);
+		assertNotSame(cache, moved);
+		assertEquals(distance(ca[2], ca[9]), moved.getDistance(2, 9), 1e-12);
+	}
+
+	private static Atom[] randomAtoms(Random random, int n) {
+		Atom[] ca = new Atom[n];
+		for (int i = 0; i < n; i++) {
+			AtomImpl atom = new AtomImpl();
+			atom.setCoords(new double[] {20 * random.nextDouble(), 20 * random.nextDouble(), 20 * random.nextDouble()});
+			ca[i] = atom;
+		}
+		return ca;
+	}
+
+	private static double distance(Atom a, Atom b) {
+		double dx = a.getX() - b.getX();
+		double dy = a.getY() - b.getY();
+		double dz = a.getZ() - b.getZ();
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.biojava.nbio.structure.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MappedDoubleArray} with tiles small enough to span several of them.
+ *
+ * @author dmyersturnbull
+ */
+public class MappedDoubleArrayTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		MappedDoubleArray array = new MappedDoubleArray(1000, null, 64, 2);
+		try {
+			assertEquals(1000, array.getLength());
+			assertEquals(0.0, array.get(999), 0.0);
+
+			for (long i = 0; i < 1000; i += 3) {
+				array.set(i, i * 0.5);
+			}
+			// a run crossing several tile boundaries
+			double[] run = new double[200];
+			for (int i = 0; i < run.length; i++) run[i] = -i;
+			array.set(301, run, 0, run.length);
+
+			double[] read = new double[1000];
+			array.get(0, read, 0, 1000);
+			for (int i = 0; i < 1000; i++) {
+				double expected = i >= 301 && i < 501 ? -(i - 301) : i % 3 == 0 ? i * 0.5 : 0.0;
+				assertEquals("at " + i, expected, read[i], 0.0);
+				assertEquals("at " + i, expected, array.get(i), 0.0);
+			}
+		} finally {
+			array.close();
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		MappedDoubleArray array = new MappedDoubleArray(640, null, 64, 2);
+		try {
+			array.set(0, 1.0);   // tile 0
+			array.set(64, 2.0);  // tile 1
+			array.get(1);        // tile 0 again, so tile 1 is now the least recently used
+			array.set(128, 3.0); // tile 2 evicts tile 1
+			assertTrue(array.isMapped(0));
+			assertFalse(array.isMapped(64));
+			assertTrue(array.isMapped(128));
+
+			// values written to evicted tiles are still in the file
+			for (long i = 192; i < 640; i += 64) {
+				array.set(i, i);
+			}
+			assertFalse(array.isMapped(0));
+			assertEquals(1.0, array.get(0), 0.0);
+			assertEquals(2.0, array.get(64), 0.0);
+			assertEquals(3.0, array.get(128), 0.0);
+			for (long i = 192; i < 640; i += 64) {
+				assertEquals(i, array.get(i), 0.0);
+			}
+		} finally {
+			array.close();
+		}
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testOutOfBounds() throws IOException {
+		MappedDoubleArray array = new MappedDoubleArray(100, null, 64, 2);
+		try {
+			array.get(100);
+		} finally {
+			array.close();
+		}
+	}
+
+}
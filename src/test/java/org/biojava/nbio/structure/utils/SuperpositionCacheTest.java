@@ -0,0 +1,89 @@
+package org.biojava.nbio.structure.utils;
+
+import static org.junit.Assert.*;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.StructureTools;
+import org.biojava.nbio.structure.align.model.AFPChain;
+import org.biojava.nbio.structure.align.symm.SymmetricChains;
+import org.biojava.nbio.structure.utils.SuperpositionCache.Superposition;
+import org.junit.Test;
+
+/**
+ * Tests that {@link SuperpositionCache} notices when the alignment or the atoms change.
+ *
+ * @author dmyersturnbull
+ */
+public class SuperpositionCacheTest {
+
+	@Test
+	public void testSetOptAln() throws StructureException {
+		Atom[] ca1 = SymmetricChains.cyclic(3, 30);
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		int n = ca1.length;
+
+		// the symmetry of the chain
+		AFPChain afpChain = newAFPChain(shifted(30, 60, n), n);
+		Superposition symmetric = SuperpositionCache.get(afpChain, ca1, ca2);
+		assertSame(symmetric, SuperpositionCache.get(afpChain, ca1, ca2));
+
+		// the same residues as a new array are still the same alignment
+		afpChain.setOptAln(shifted(30, 60, n));
+		assertSame(symmetric, SuperpositionCache.get(afpChain, ca1, ca2));
+
+		// an alignment off the symmetry
+		int[][][] optAln = shifted(17, 60, n);
+		afpChain.setOptAln(optAln);
+		Superposition other = SuperpositionCache.get(afpChain, ca1, ca2);
+		assertNotSame(symmetric, other);
+		assertTrue(other.getRmsd() > symmetric.getRmsd());
+
+		Superposition fresh = SuperpositionCache.get(newAFPChain(optAln, n), ca1, ca2);
+		assertEquals(fresh.getRmsd(), other.getRmsd(), 0.0);
+		assertEquals(fresh.getTMScore(), other.getTMScore(), 0.0);
+		assertEquals(fresh.getTMScore(), SuperpositionCache.getTMScore(afpChain, ca1, ca2), 0.0);
+	}
+
+	@Test
+	public void testMovedAtoms() throws StructureException {
+		Atom[] ca1 = SymmetricChains.cyclic(3, 30);
+		Atom[] ca2 = StructureTools.cloneCAArray(ca1);
+		int n = ca1.length;
+
+		AFPChain afpChain = newAFPChain(shifted(30, 60, n), n);
+		Superposition before = SuperpositionCache.get(afpChain, ca1, ca2);
+
+		ca2[45].setX(ca2[45].getX() + 5);
+		Superposition after = SuperpositionCache.get(afpChain, ca1, ca2);
+		assertNotSame(before, after);
+		assertTrue(after.getRmsd() > before.getRmsd());
+	}
+
+	/**
+	 * @return One block aligning residues 0 to length-1 with the residues {@code shift} further along
+	 */
+	private static int[][][] shifted(int shift, int length, int n) {
+		int[][][] optAln = new int[1][2][length];
+		for (int i = 0; i < length; i++) {
+			optAln[0][0][i] = i;
+			optAln[0][1][i] = (i + shift) % n;
+		}
+		return optAln;
+	}
+
+	private static AFPChain newAFPChain(int[][][] optAln, int length) {
+		int[] optLen = new int[optAln.length];
+		for (int block = 0; block < optAln.length; block++) {
+			optLen[block] = optAln[block][0].length;
+		}
+		AFPChain afpChain = new AFPChain();
+		afpChain.setCa1Length(length);
+		afpChain.setCa2Length(length);
+		afpChain.setBlockNum(optAln.length);
+		afpChain.setOptLen(optLen);
+		afpChain.setOptAln(optAln);
+		return afpChain;
+	}
+
+}